@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package android.app;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.SharedPreferences;
+
+/**
+ * Stand-in for the platform class. The values are kept in memory and every
+ * commit() or apply() rewrites the whole file as XML, as the platform does.
+ * Both write on the calling thread; the platform's apply() does the same
+ * write on a background thread.
+ * @author ridhishguhan
+ */
+public class SharedPreferencesImpl implements SharedPreferences {
+	private final File mFile;
+	private final Map<String, Object> mMap = new HashMap<String, Object>();
+	private final CopyOnWriteArrayList<OnSharedPreferenceChangeListener> mListeners
+			= new CopyOnWriteArrayList<OnSharedPreferenceChangeListener>();
+	private int mWrites = 0;
+
+	public SharedPreferencesImpl(File file) {
+		mFile = file;
+	}
+
+	@Override
+	public synchronized String getString(String key, String defValue) {
+		String v = (String) mMap.get(key);
+		return v != null ? v : defValue;
+	}
+
+	@Override
+	public synchronized int getInt(String key, int defValue) {
+		Integer v = (Integer) mMap.get(key);
+		return v != null ? v : defValue;
+	}
+
+	@Override
+	public synchronized long getLong(String key, long defValue) {
+		Long v = (Long) mMap.get(key);
+		return v != null ? v : defValue;
+	}
+
+	@Override
+	public synchronized boolean getBoolean(String key, boolean defValue) {
+		Boolean v = (Boolean) mMap.get(key);
+		return v != null ? v : defValue;
+	}
+
+	@Override
+	public synchronized boolean contains(String key) {
+		return mMap.containsKey(key);
+	}
+
+	@Override
+	public synchronized Map<String, ?> getAll() {
+		return new HashMap<String, Object>(mMap);
+	}
+
+	@Override
+	public Editor edit() {
+		return new EditorImpl();
+	}
+
+	@Override
+	public void registerOnSharedPreferenceChangeListener(
+			OnSharedPreferenceChangeListener listener) {
+		mListeners.addIfAbsent(listener);
+	}
+
+	@Override
+	public void unregisterOnSharedPreferenceChangeListener(
+			OnSharedPreferenceChangeListener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * @return how many times the file was written
+	 */
+	public synchronized int getWrites() {
+		return mWrites;
+	}
+
+	private final class EditorImpl implements Editor {
+		// null values stand for removals
+		private final Map<String, Object> mChanges = new HashMap<String, Object>();
+		private boolean mClear = false;
+
+		@Override
+		public Editor putString(String key, String value) {
+			mChanges.put(key, value);
+			return this;
+		}
+
+		@Override
+		public Editor putInt(String key, int value) {
+			mChanges.put(key, value);
+			return this;
+		}
+
+		@Override
+		public Editor putLong(String key, long value) {
+			mChanges.put(key, value);
+			return this;
+		}
+
+		@Override
+		public Editor putBoolean(String key, boolean value) {
+			mChanges.put(key, value);
+			return this;
+		}
+
+		@Override
+		public Editor remove(String key) {
+			mChanges.put(key, null);
+			return this;
+		}
+
+		@Override
+		public Editor clear() {
+			mClear = true;
+			return this;
+		}
+
+		@Override
+		public boolean commit() {
+			List<String> keys = new ArrayList<String>(mChanges.keySet());
+			boolean written;
+			synchronized (SharedPreferencesImpl.this) {
+				if (mClear) mMap.clear();
+				for (Entry<String, Object> change : mChanges.entrySet()) {
+					if (change.getValue() == null) {
+						mMap.remove(change.getKey());
+					} else {
+						mMap.put(change.getKey(), change.getValue());
+					}
+				}
+				written = write();
+			}
+			for (String key : keys) {
+				for (OnSharedPreferenceChangeListener listener : mListeners) {
+					listener.onSharedPreferenceChanged(SharedPreferencesImpl.this, key);
+				}
+			}
+			return written;
+		}
+
+		@Override
+		public void apply() {
+			commit();
+		}
+	}
+
+	private boolean write() {
+		mWrites++;
+		Writer out = null;
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mFile)
+					, "UTF-8"));
+			out.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+			for (Entry<String, Object> e : mMap.entrySet()) {
+				Object v = e.getValue();
+				String type = v instanceof String ? "string" : v instanceof Integer ? "int"
+						: v instanceof Long ? "long" : "boolean";
+				if (v instanceof String) {
+					out.write("    <string name=\"" + escape(e.getKey()) + "\">"
+							+ escape((String) v) + "</string>\n");
+				} else {
+					out.write("    <" + type + " name=\"" + escape(e.getKey())
+							+ "\" value=\"" + v + "\" />\n");
+				}
+			}
+			out.write("</map>\n");
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	private static String escape(String s) {
+		return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+				.replace("\"", "&quot;");
+	}
+}
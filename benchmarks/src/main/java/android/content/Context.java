@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package android.content;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.app.SharedPreferencesImpl;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.wifi.WifiManager;
+
+/**
+ * Stand-in for the platform class. System services are looked up in a map,
+ * which starts out with a WiFi manager reporting no connection and a
+ * connectivity manager which routes nothing. Files go to a temporary
+ * directory of its own.
+ * @author ridhishguhan
+ */
+public class Context {
+	public static final String CONNECTIVITY_SERVICE = "connectivity";
+	public static final String WIFI_SERVICE = "wifi";
+	public static final String TELEPHONY_SERVICE = "phone";
+
+	private final Map<String, Object> mServices = new HashMap<String, Object>();
+	private final Map<String, SharedPreferences> mPreferences
+			= new HashMap<String, SharedPreferences>();
+	private File mFilesDir;
+
+	public Context() {
+		mServices.put(WIFI_SERVICE, new WifiManager());
+		mServices.put(CONNECTIVITY_SERVICE, new ConnectivityManager());
+	}
+
+	public Object getSystemService(String name) {
+		return mServices.get(name);
+	}
+
+	/**
+	 * Replaces a service, e.g. with one that records what it is asked to do
+	 */
+	public void putSystemService(String name, Object service) {
+		mServices.put(name, service);
+	}
+
+	public Context getApplicationContext() {
+		return this;
+	}
+
+	public PackageManager getPackageManager() {
+		return new PackageManager();
+	}
+
+	public String getPackageName() {
+		return "riddimon.android.asianetautologin";
+	}
+
+	public synchronized File getFilesDir() {
+		if (mFilesDir == null) {
+			try {
+				mFilesDir = Files.createTempDirectory("files").toFile();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return mFilesDir;
+	}
+
+	public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+		SharedPreferences prefs = mPreferences.get(name);
+		if (prefs == null) {
+			prefs = new SharedPreferencesImpl(new File(getFilesDir(), name));
+			mPreferences.put(name, prefs);
+		}
+		return prefs;
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package android.net;
+
+import java.net.URI;
+
+/**
+ * Stand-in for the platform class, backed by {@link URI}. Only the parts of
+ * a hierarchical uri the app asks for are there.
+ * @author ridhishguhan
+ */
+public class Uri {
+	private final URI mUri;
+
+	private Uri(URI uri) {
+		mUri = uri;
+	}
+
+	public static Uri parse(String uriString) {
+		return new Uri(URI.create(uriString));
+	}
+
+	public String getScheme() {
+		return mUri.getScheme();
+	}
+
+	public String getAuthority() {
+		return mUri.getAuthority();
+	}
+
+	public String getHost() {
+		return mUri.getHost();
+	}
+
+	public int getPort() {
+		return mUri.getPort();
+	}
+
+	public String getPath() {
+		return mUri.getPath();
+	}
+
+	@Override
+	public String toString() {
+		return mUri.toString();
+	}
+}
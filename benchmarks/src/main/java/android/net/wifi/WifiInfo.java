@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package android.net.wifi;
+
+/**
+ * Stand-in for the platform class
+ * @author ridhishguhan
+ */
+public class WifiInfo {
+	private final String mSsid;
+	private final String mBssid;
+	private final int mIpAddress;
+
+	/**
+	 * @param ipAddress IPv4, least significant byte first like the platform
+	 */
+	public WifiInfo(String ssid, String bssid, int ipAddress) {
+		mSsid = ssid;
+		mBssid = bssid;
+		mIpAddress = ipAddress;
+	}
+
+	public String getSSID() {
+		return mSsid;
+	}
+
+	public String getBSSID() {
+		return mBssid;
+	}
+
+	public int getIpAddress() {
+		return mIpAddress;
+	}
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package android.net.wifi;
+
+/**
+ * Stand-in for the platform class. WiFi is off unless a connection is set.
+ * @author ridhishguhan
+ */
+public class WifiManager {
+	public static final int WIFI_STATE_DISABLING = 0;
+	public static final int WIFI_STATE_DISABLED = 1;
+	public static final int WIFI_STATE_ENABLING = 2;
+	public static final int WIFI_STATE_ENABLED = 3;
+	public static final int WIFI_STATE_UNKNOWN = 4;
+
+	private volatile WifiInfo mInfo;
+
+	/**
+	 * Pretends to be associated, or not with null
+	 */
+	public void setConnectionInfo(WifiInfo info) {
+		mInfo = info;
+	}
+
+	public WifiInfo getConnectionInfo() {
+		return mInfo;
+	}
+
+	public boolean isWifiEnabled() {
+		return mInfo != null;
+	}
+
+	public int getWifiState() {
+		return mInfo == null ? WIFI_STATE_DISABLED : WIFI_STATE_ENABLED;
+	}
+}
@@ -0,0 +1,32 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package android.text.format;
+
+/**
+ * Stand-in for the platform class
+ * @author ridhishguhan
+ */
+public class DateUtils {
+	public static final long SECOND_IN_MILLIS = 1000;
+	public static final long MINUTE_IN_MILLIS = 60 * SECOND_IN_MILLIS;
+	public static final long HOUR_IN_MILLIS = 60 * MINUTE_IN_MILLIS;
+	public static final long DAY_IN_MILLIS = 24 * HOUR_IN_MILLIS;
+}
@@ -0,0 +1,91 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package riddimon.android.asianetautologin;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.content.Context;
+import riddimon.android.asianetautologin.bench.Pages;
+
+/**
+ * Finding the login form on a page which hasn't changed: scanning it as
+ * discovery did before there was a cache, and looking the page up in the
+ * {@link FormCache} and matching its fingerprint as discovery does now.
+ * It sits in the app's package as the cache is only open to it.
+ * @author ridhishguhan
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormCacheBenchmark {
+	@Param({Pages.LOGIN_SMALL, Pages.LOGIN_LARGE})
+	public String page;
+
+	private final Context mContext = new Context();
+	private final FormCache mCache = FormCache.getInstance();
+	private byte[] mBytes;
+	private HttpResult mHead;
+	private FormScanner mScanner;
+
+	@Setup
+	public void setUp() throws IOException {
+		mBytes = Pages.load(page);
+		mHead = new HttpResult(200, "HTTP/1.1 200 OK", new Header[] {
+				new BasicHeader("ETag", "\"" + page + "\"")}, null, false);
+		mScanner = new FormScanner(FormScanner.ABSOLUTE_URL);
+		// the first discovery of the page fills the cache
+		if (mCache.scan(mContext, Pages.BASE_URI, mHead, new ByteArrayInputStream(mBytes)
+				, null, mScanner) == null) {
+			throw new IllegalStateException("No form on " + page);
+		}
+	}
+
+	@Benchmark
+	public FormScanner.Form scan() throws IOException {
+		return mScanner.scan(new ByteArrayInputStream(mBytes));
+	}
+
+	@Benchmark
+	public FormScanner.Form cached() throws IOException {
+		FormCache.Entry entry = mCache.get(mContext, Pages.BASE_URI);
+		return mCache.scan(mContext, Pages.BASE_URI, mHead, new ByteArrayInputStream(mBytes)
+				, entry, mScanner);
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import riddimon.android.asianetautologin.HttpUtils;
+import riddimon.android.asianetautologin.HttpUtils.HttpMethod;
+import riddimon.android.asianetautologin.RequestTemplate;
+
+/**
+ * Building the login request: encoding the fields by hand, building the
+ * request with a form entity as the service used to, and replaying the
+ * precompiled template it uses now.
+ * @author ridhishguhan
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+	private static final String[] FIELDS = {
+		"auth_user", "bench.user@asianet",
+		"auth_pass", "p@ss w0rd&more",
+		"redirurl", "http://www.google.co.in/",
+		"zone", "asianet",
+		"accept", "Login >>"
+	};
+
+	private Map<String, String> mParams;
+
+	@Setup
+	public void setUp() {
+		mParams = new LinkedHashMap<String, String>();
+		for (int i = 0; i + 1 < FIELDS.length; i += 2) mParams.put(FIELDS[i], FIELDS[i + 1]);
+	}
+
+	@Benchmark
+	public String encodeParameters() {
+		return HttpUtils.getEncodedParameters(mParams);
+	}
+
+	@Benchmark
+	public HttpUriRequest buildPost() {
+		return HttpUtils.buildRequest(HttpMethod.POST, Pages.BASE_URI, mParams, null);
+	}
+
+	@Benchmark
+	public HttpUriRequest replayTemplate() {
+		return RequestTemplate.get("login", Pages.BASE_URI, FIELDS).newRequest();
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package riddimon.android.asianetautologin.bench;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.content.Context;
+import riddimon.android.asianetautologin.EventLog;
+
+/**
+ * Recording a keep alive: appending it to the {@link EventLog} as the
+ * service does now, and formatting the text line it used to log instead.
+ * Run with -prof gc to see what each allocates.
+ * @author ridhishguhan
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventLogBenchmark {
+	private static final String STATS = "leased=0, available=1, max=4";
+
+	private EventLog mLog;
+	private int mTick = 0;
+
+	@Setup
+	public void setUp() {
+		mLog = EventLog.getInstance(new Context());
+	}
+
+	@Benchmark
+	public void append() {
+		mLog.log(EventLog.KEEP_ALIVE, 200, ++mTick & 0xff, 300000);
+	}
+
+	@Benchmark
+	public String formatLine() {
+		return String.format(Locale.US, "%tT Keep alive : %d %s took %d ms, interval %d s"
+				+ ", connections : %s", System.currentTimeMillis(), 200, "SUCCESS"
+				, ++mTick & 0xff, 300, STATS);
+	}
+}
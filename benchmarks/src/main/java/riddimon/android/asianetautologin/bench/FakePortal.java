@@ -0,0 +1,272 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in for the Asianet captive portal, serving one device on the
+ * loopback interface. Probes go to localhost and are answered with a 302
+ * to the portal on 127.0.0.1, so the probe sees a redirect to another host
+ * just as it would on the real network. The portal serves the login form,
+ * takes logins, keep alives and logouts the way the pfSense portal does,
+ * and drops the session once it has been idle for too long. Every request
+ * can be delayed, and a share of them answered with a 503.
+ * @author ridhishguhan
+ */
+public class FakePortal {
+	public static final String USER = "bench.user@asianet";
+	public static final String PASSWORD = "p@ss w0rd&more";
+
+	private static final String PAGE_HOST = "http://10.10.10.1:8000";
+	private static final String ALIVE = "alive";
+	private static final String LOGGED_OUT = "<html><body>You have been"
+			+ " disconnected.</body></html>";
+
+	static {
+		// otherwise the headers and body of an answer go out in two segments
+		// and the second waits out the client's delayed ACK, ~40 ms that a
+		// real portal doesn't add
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final long mLatency;
+	private final double mFailureRate;
+	private final long mIdleTimeout;
+	private final Random mRandom;
+
+	private HttpServer mServer;
+	private ExecutorService mExecutor;
+	private String mPortalBase;
+	private byte[] mLoginPage;
+	private byte[] mRejectedPage;
+	private byte[] mLoggedInPage;
+
+	// the one device's session, guarded by this
+	private boolean mSession;
+	private long mLastSeen;
+
+	private final AtomicInteger mRequests = new AtomicInteger();
+	private final AtomicInteger mFailures = new AtomicInteger();
+
+	/**
+	 * @param latency delay before every answer, in ms
+	 * @param failureRate share of requests answered with a 503
+	 * @param idleTimeout ms without a keep alive after which the session is
+	 * dropped, 0 to never drop it
+	 * @param seed for the failure injection, so runs can be repeated
+	 */
+	public FakePortal(long latency, double failureRate, long idleTimeout, long seed) {
+		mLatency = latency;
+		mFailureRate = failureRate;
+		mIdleTimeout = idleTimeout;
+		mRandom = new Random(seed);
+	}
+
+	public void start() throws IOException {
+		mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		mExecutor = Executors.newCachedThreadPool();
+		mServer.setExecutor(mExecutor);
+		mPortalBase = "http://127.0.0.1:" + mServer.getAddress().getPort();
+		mLoginPage = page(Pages.LOGIN_SMALL);
+		mRejectedPage = page(Pages.LOGIN_REJECTED);
+		mLoggedInPage = page(Pages.LOGOUT);
+		mServer.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					dispatch(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		mServer.start();
+	}
+
+	public void stop() {
+		mServer.stop(0);
+		mExecutor.shutdownNow();
+	}
+
+	/**
+	 * @return a probe target which answers 204 once logged in
+	 */
+	public String getProbeUrl() {
+		return "http://localhost:" + mServer.getAddress().getPort() + "/generate_204";
+	}
+
+	/**
+	 * @return where the login form posts to
+	 */
+	public String getActionUrl() {
+		return mPortalBase + "/index.php?zone=asianet";
+	}
+
+	/**
+	 * Drops the session, as if the device had been away
+	 */
+	public synchronized void reset() {
+		mSession = false;
+	}
+
+	public synchronized boolean isLoggedIn() {
+		return hasSession(System.currentTimeMillis());
+	}
+
+	public int getRequests() {
+		return mRequests.get();
+	}
+
+	public int getFailures() {
+		return mFailures.get();
+	}
+
+	private void dispatch(HttpExchange exchange) throws IOException {
+		mRequests.incrementAndGet();
+		Map<String, String> form = readForm(exchange);
+		if (mLatency > 0) {
+			try {
+				Thread.sleep(mLatency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (shouldFail()) {
+			mFailures.incrementAndGet();
+			send(exchange, 503, null);
+			return;
+		}
+		String host = exchange.getRequestHeaders().getFirst("Host");
+		if (host != null && host.startsWith("localhost")) {
+			probe(exchange);
+		} else if ("POST".equals(exchange.getRequestMethod())) {
+			post(exchange, form);
+		} else {
+			send(exchange, 200, mLoginPage);
+		}
+	}
+
+	private void probe(HttpExchange exchange) throws IOException {
+		if (isLoggedIn()) {
+			send(exchange, 204, null);
+			return;
+		}
+		exchange.getResponseHeaders().set("Location", getActionUrl()
+				+ "&redirurl=http%3A%2F%2Fclients3.google.com%2Fgenerate_204");
+		send(exchange, 302, null);
+	}
+
+	private void post(HttpExchange exchange, Map<String, String> form)
+			throws IOException {
+		long now = System.currentTimeMillis();
+		byte[] answer;
+		synchronized (this) {
+			if (form.containsKey("logout_id")) {
+				mSession = false;
+				answer = LOGGED_OUT.getBytes("ISO-8859-1");
+			} else if (form.containsKey(ALIVE)) {
+				// an unknown session gets the login page, with a 200
+				if (hasSession(now) && USER.equals(form.get("un"))) {
+					mLastSeen = now;
+					answer = ALIVE.getBytes("ISO-8859-1");
+				} else {
+					answer = mLoginPage;
+				}
+			} else if (form.containsKey("accept") && form.containsKey("redirurl")
+					&& USER.equals(form.get("auth_user"))
+					&& PASSWORD.equals(form.get("auth_pass"))) {
+				mSession = true;
+				mLastSeen = now;
+				answer = mLoggedInPage;
+			} else {
+				answer = mRejectedPage;
+			}
+		}
+		send(exchange, 200, answer);
+	}
+
+	private boolean hasSession(long now) {
+		if (mSession && mIdleTimeout > 0 && now - mLastSeen > mIdleTimeout) {
+			mSession = false;
+		}
+		return mSession;
+	}
+
+	private synchronized boolean shouldFail() {
+		return mFailureRate > 0 && mRandom.nextDouble() < mFailureRate;
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body)
+			throws IOException {
+		if (body == null || "HEAD".equals(exchange.getRequestMethod())) {
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		exchange.getResponseHeaders().set("Content-Type", "text/html; charset=iso-8859-1");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	private static Map<String, String> readForm(HttpExchange exchange)
+			throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		InputStream in = exchange.getRequestBody();
+		byte[] buffer = new byte[4 * 1024];
+		int read;
+		while ((read = in.read(buffer)) != -1) bos.write(buffer, 0, read);
+		Map<String, String> form = new HashMap<String, String>();
+		String body = bos.toString("ISO-8859-1");
+		if (body.length() == 0) return form;
+		for (String pair : body.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq < 0) form.put(decode(pair), "");
+			else form.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+		}
+		return form;
+	}
+
+	private static String decode(String s) throws UnsupportedEncodingException {
+		return URLDecoder.decode(s, "ISO-8859-1");
+	}
+
+	private byte[] page(String name) throws UnsupportedEncodingException {
+		String html = new String(Pages.load(name), "ISO-8859-1");
+		return html.replace(PAGE_HOST, mPortalBase).getBytes("ISO-8859-1");
+	}
+}
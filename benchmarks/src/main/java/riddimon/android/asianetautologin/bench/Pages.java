@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The portal pages the benchmarks replay, kept in resources/pages. They are
+ * modelled on the pfSense captive portal templates the Asianet portal is
+ * built from: a bare login form, the same form padded out with the inline
+ * styles, scripts and terms the portal serves ahead of it, the form with
+ * a rejection message, and the logout window served once logged in.
+ * @author ridhishguhan
+ */
+public final class Pages {
+	public static final String LOGIN_SMALL = "login-small";
+	public static final String LOGIN_LARGE = "login-large";
+	public static final String LOGIN_REJECTED = "login-rejected";
+	public static final String LOGOUT = "logout";
+
+	/** where the pages claim to have been loaded from */
+	public static final String BASE_URI = "http://10.10.10.1:8000/index.php?zone=asianet";
+
+	private Pages() {
+	}
+
+	/**
+	 * @param name one of the page names above
+	 * @return the page as it comes off the wire
+	 */
+	public static byte[] load(String name) {
+		InputStream in = Pages.class.getResourceAsStream("/pages/" + name + ".html");
+		if (in == null) throw new IllegalArgumentException("No page " + name);
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(64 * 1024);
+			byte[] buffer = new byte[8 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1) bos.write(buffer, 0, read);
+			return bos.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read page " + name, e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import riddimon.android.asianetautologin.FormScanner;
+import riddimon.android.asianetautologin.HttpUtils;
+import riddimon.android.asianetautologin.LoginClassifier;
+
+/**
+ * What the service does with a portal page once it has arrived: reading it
+ * into a string, finding the login form by streaming scan or by parsing the
+ * whole page, and classifying the page a login is answered with.
+ * @author ridhishguhan
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+	@Param({Pages.LOGIN_SMALL, Pages.LOGIN_LARGE, Pages.LOGIN_REJECTED, Pages.LOGOUT})
+	public String page;
+
+	private byte[] mBytes;
+	private String mHtml;
+	// both are reused by the service, one per task
+	private FormScanner mScanner;
+	private LoginClassifier mClassifier;
+
+	@Setup
+	public void setUp() {
+		mBytes = Pages.load(page);
+		mHtml = HttpUtils.readStreamIntoString(new ByteArrayInputStream(mBytes));
+		mScanner = new FormScanner(FormScanner.ABSOLUTE_URL);
+		mClassifier = new LoginClassifier();
+	}
+
+	@Benchmark
+	public String readIntoString() {
+		return HttpUtils.readStreamIntoString(new ByteArrayInputStream(mBytes));
+	}
+
+	@Benchmark
+	public FormScanner.Form scan() throws IOException {
+		return mScanner.scan(new ByteArrayInputStream(mBytes));
+	}
+
+	@Benchmark
+	public FormScanner.Form parse() {
+		return FormScanner.parse(mHtml, Pages.BASE_URI, FormScanner.ABSOLUTE_URL);
+	}
+
+	@Benchmark
+	public LoginClassifier.Result classify() throws IOException {
+		return mClassifier.classify(new ByteArrayInputStream(mBytes), 0);
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package riddimon.android.asianetautologin.bench;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import riddimon.android.asianetautologin.HttpUtils;
+import riddimon.android.asianetautologin.RetryPolicy;
+
+/**
+ * Logs in to a {@link FakePortal} which fails a share of its requests, and
+ * retries failed logins the way LoginService does: the delays and budget
+ * come from {@link RetryPolicy}, a run which gives up waits for the
+ * fallback, and the budget is given back after a success. Reports how long
+ * it took from the first failure until the internet was open, for the
+ * logins which failed at least once. Backoff delays are divided by the
+ * scale so a run takes seconds rather than hours, request times are not.
+ * <pre>
+ * java -cp target/benchmarks.jar riddimon.android.asianetautologin.bench.RecoveryTime \
+ *     [logins] [latency ms] [failure rate] [scale] [seed]
+ * </pre>
+ * @author ridhishguhan
+ */
+public class RecoveryTime {
+	private final TimeToInternet mLogin;
+	private final RetryPolicy mPolicy;
+
+	private int mAttempts = 0;
+	private int mRetries = 0;
+
+	RecoveryTime(FakePortal portal, long scale) {
+		mLogin = new TimeToInternet(portal);
+		mPolicy = new RetryPolicy(RetryPolicy.BASE_DELAY / scale, RetryPolicy.MAX_DELAY
+				/ scale, RetryPolicy.MAX_ATTEMPTS, RetryPolicy.SESSION_BUDGET);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int logins = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		long latency = args.length > 1 ? Long.parseLong(args[1]) : 20;
+		double failureRate = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+		long scale = args.length > 3 ? Long.parseLong(args[3]) : 100;
+		long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+
+		FakePortal portal = new FakePortal(latency, failureRate, 0, seed);
+		portal.start();
+		try {
+			RecoveryTime bench = new RecoveryTime(portal, scale);
+			long[] recovered = new long[logins];
+			long[] lost = new long[logins];
+			int clean = 0;
+			int ok = 0;
+			int failed = 0;
+			for (int i = 0; i < logins; i++) {
+				portal.reset();
+				long elapsed = bench.login();
+				if (elapsed == 0) clean++;
+				else if (elapsed > 0) recovered[ok++] = elapsed;
+				else lost[failed++] = -elapsed;
+			}
+			System.out.println(String.format(Locale.US, "%d logins, latency %d ms"
+					+ ", failure rate %.2f, delays / %d : %d clean, %d recovered"
+					+ ", %d gave up, %d attempts, %d retries", logins, latency
+					, failureRate, scale, clean, ok, failed, bench.mAttempts
+					, bench.mRetries));
+			System.out.println(String.format(Locale.US, "%-10s %9s %9s %9s %9s"
+					, "ms", "p50", "p90", "p99", "max"));
+			print("recovered", recovered, ok);
+			print("gave up", lost, failed);
+		} finally {
+			portal.stop();
+		}
+	}
+
+	/**
+	 * Logs in, retrying until it works or the policy gives up for good
+	 * @return 0 if the first attempt worked, else the ns from its failure
+	 * until a later attempt worked, negated if none did
+	 */
+	long login() throws InterruptedException {
+		long firstFailure = 0;
+		int attempt = 0;
+		while (true) {
+			attempt++;
+			mAttempts++;
+			boolean online = mLogin.run() != null;
+			if (online) {
+				mPolicy.reset();
+				return firstFailure == 0 ? 0 : System.nanoTime() - firstFailure;
+			}
+			if (firstFailure == 0) firstFailure = System.nanoTime();
+			RetryPolicy.Failure failure = RetryPolicy.classify(HttpUtils.getLastError());
+			long delay = mPolicy.next(failure, attempt);
+			if (delay < 0) {
+				// the service's alarm, a run of attempts of its own
+				delay = mPolicy.fallback(failure);
+				if (delay < 0) return -(System.nanoTime() - firstFailure);
+				attempt = 0;
+			}
+			mRetries++;
+			Thread.sleep(delay);
+		}
+	}
+
+	private static void print(String name, long[] samples, int count) {
+		if (count == 0) return;
+		long[] sorted = Arrays.copyOf(samples, count);
+		Arrays.sort(sorted);
+		System.out.println(String.format(Locale.US, "%-10s %9.2f %9.2f %9.2f %9.2f"
+				, name, millis(sorted, 0.5), millis(sorted, 0.9), millis(sorted, 0.99)
+				, millis(sorted, 1)));
+	}
+
+	private static double millis(long[] sorted, double fraction) {
+		int rank = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, rank)] / 1e6;
+	}
+}
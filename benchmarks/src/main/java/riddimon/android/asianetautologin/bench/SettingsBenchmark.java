@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package riddimon.android.asianetautologin.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import android.content.Context;
+import riddimon.android.asianetautologin.SettingsManager;
+
+/**
+ * Reading the settings a login run needs, key by key from the preferences
+ * as the service used to and from the cached snapshot it uses now, and
+ * writing the keys a keep alive changes, one write per key and as a single
+ * batch. The preferences hold a profile and a cached form besides, so each
+ * write rewrites a file of realistic size.
+ * @author ridhishguhan
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SettingsBenchmark {
+	private final Context mContext = new Context();
+	private long mTick = 0;
+
+	@Setup
+	public void setUp() {
+		SettingsManager.edit(mContext)
+				.putString(SettingsManager.USERNAME, FakePortal.USER)
+				.putString(SettingsManager.PASSWORD, FakePortal.PASSWORD)
+				.putString(SettingsManager.SSID, "Asianet")
+				.putInt(SettingsManager.KEEP_ALIVE, -1)
+				.putString(SettingsManager.PROFILES, "[{\"name\":\"Asianet\",\"ssids\":"
+						+ "[\"Asianet\",\"Asianet-5G\"],\"username\":\"" + FakePortal.USER
+						+ "\",\"password\":\"" + FakePortal.PASSWORD + "\",\"url\":\""
+						+ Pages.BASE_URI + "index.php\"}]")
+				.putString(SettingsManager.FORM_PREFIX + Pages.BASE_URI, "{\"etag\":"
+						+ "\"\\\"5f3a-1c2\\\"\",\"length\":2048,\"crc\":3735928559,"
+						+ "\"action\":\"" + Pages.BASE_URI + "index.php\",\"inputs\":"
+						+ "[\"auth_user\",\"auth_pass\",\"redirurl\",\"accept\"]}")
+				.apply();
+	}
+
+	@Benchmark
+	public void readPreferences(Blackhole bh) {
+		bh.consume(SettingsManager.getString(mContext, SettingsManager.USERNAME, null));
+		bh.consume(SettingsManager.getString(mContext, SettingsManager.PASSWORD, null));
+		bh.consume(SettingsManager.getString(mContext, SettingsManager.URL, null));
+		bh.consume(SettingsManager.getString(mContext, SettingsManager.SSID, null));
+		bh.consume(SettingsManager.getInt(mContext, SettingsManager.KEEP_ALIVE, -1));
+		bh.consume(SettingsManager.getBoolean(mContext, SettingsManager.SHOW_NOTIF, true));
+		bh.consume(SettingsManager.getBoolean(mContext, SettingsManager.KA_LAZY, true));
+		bh.consume(SettingsManager.getBoolean(mContext, SettingsManager.LOG_IN, true));
+		bh.consume(SettingsManager.getLong(mContext, SettingsManager.LOG_IN_TIME, 0));
+	}
+
+	@Benchmark
+	public void readSnapshot(Blackhole bh) {
+		SettingsManager.Config config = SettingsManager.getConfig(mContext);
+		bh.consume(config.username);
+		bh.consume(config.password);
+		bh.consume(config.url);
+		bh.consume(config.ssid);
+		bh.consume(config.keepAlive);
+		bh.consume(config.showNotification);
+		bh.consume(config.lazyKeepAlive);
+		bh.consume(config.logIn);
+		bh.consume(config.logInTime);
+	}
+
+	@Benchmark
+	public void writeEachKey() {
+		long now = ++mTick;
+		SettingsManager.putInt(mContext, SettingsManager.KA_WAKEUPS, (int) now);
+		SettingsManager.putLong(mContext, SettingsManager.KA_TRAFFIC, now);
+		SettingsManager.putLong(mContext, SettingsManager.KA_LAST_CONTACT, now);
+		SettingsManager.putLong(mContext, SettingsManager.KA_INTERVAL, now);
+		SettingsManager.putLong(mContext, SettingsManager.SESSION_STATE, now);
+	}
+
+	@Benchmark
+	public void writeBatch() {
+		long now = ++mTick;
+		SettingsManager.edit(mContext)
+				.putInt(SettingsManager.KA_WAKEUPS, (int) now)
+				.putLong(SettingsManager.KA_TRAFFIC, now)
+				.putLong(SettingsManager.KA_LAST_CONTACT, now)
+				.putLong(SettingsManager.KA_INTERVAL, now)
+				.putLong(SettingsManager.SESSION_STATE, now)
+				.apply();
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package riddimon.android.asianetautologin.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.http.HttpStatus;
+
+import android.content.Context;
+import riddimon.android.asianetautologin.ProbeEngine;
+
+/**
+ * Probes a {@link FakePortal}, logged out and then logged in, and reports
+ * how long {@link ProbeEngine} took to reach a verdict and how often it
+ * reached the right one. A single target is compared with a race of
+ * three, which matters once the portal fails some of the requests.
+ * <pre>
+ * java -cp target/benchmarks.jar riddimon.android.asianetautologin.bench.TimeToDecision \
+ *     [probes] [latency ms] [failure rate] [seed]
+ * </pre>
+ * @author ridhishguhan
+ */
+public class TimeToDecision {
+	private static final int[] TARGETS = {1, 3};
+	// probes left out of the numbers while the JIT settles
+	private static final int WARMUP = 20;
+
+	private final Context mContext = new Context();
+
+	public static void main(String[] args) throws IOException {
+		int probes = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		long latency = args.length > 1 ? Long.parseLong(args[1]) : 20;
+		double failureRate = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+		FakePortal portal = new FakePortal(latency, failureRate, 0, seed);
+		portal.start();
+		try {
+			System.out.println(String.format(Locale.US, "%d probes, latency %d ms"
+					+ ", failure rate %.2f", probes, latency, failureRate));
+			System.out.println(String.format(Locale.US, "%-16s %7s %9s %9s %9s %9s"
+					, "ms", "right", "p50", "p90", "p99", "max"));
+			TimeToDecision bench = new TimeToDecision();
+			for (int targets : TARGETS) {
+				ProbeEngine engine = engine(portal, targets);
+				portal.reset();
+				bench.run("portal, " + targets, engine, ProbeEngine.Verdict.PORTAL, probes);
+				TimeToInternet login = new TimeToInternet(portal);
+				while (!portal.isLoggedIn()) login.run();
+				bench.run("open, " + targets, engine, ProbeEngine.Verdict.OPEN, probes);
+			}
+		} finally {
+			portal.stop();
+		}
+	}
+
+	private static ProbeEngine engine(FakePortal portal, int targets) {
+		List<ProbeEngine.Target> list = new ArrayList<ProbeEngine.Target>();
+		for (int i = 0; i < targets; i++) {
+			list.add(new ProbeEngine.Target(portal.getProbeUrl() + "?target=" + i
+					, HttpStatus.SC_NO_CONTENT));
+		}
+		return new ProbeEngine(list, 10 * 1000);
+	}
+
+	private void run(String name, ProbeEngine engine, ProbeEngine.Verdict expected
+			, int probes) {
+		long[] samples = new long[probes];
+		int right = 0;
+		for (int i = 0; i < WARMUP + probes; i++) {
+			long start = System.nanoTime();
+			ProbeEngine.Result result = engine.probe(mContext);
+			long elapsed = System.nanoTime() - start;
+			if (i < WARMUP) continue;
+			samples[i - WARMUP] = elapsed;
+			if (result.verdict == expected) right++;
+		}
+		Arrays.sort(samples);
+		System.out.println(String.format(Locale.US, "%-16s %6.1f%% %9.2f %9.2f %9.2f %9.2f"
+				, name, 100.0 * right / probes, millis(samples, 0.5), millis(samples, 0.9)
+				, millis(samples, 0.99), millis(samples, 1)));
+	}
+
+	private static double millis(long[] sorted, double fraction) {
+		int rank = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, rank)] / 1e6;
+	}
+}
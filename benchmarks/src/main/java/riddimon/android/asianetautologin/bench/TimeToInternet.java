@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+
+import android.content.Context;
+import android.net.Uri;
+import riddimon.android.asianetautologin.FormScanner;
+import riddimon.android.asianetautologin.HttpResult;
+import riddimon.android.asianetautologin.HttpUtils;
+import riddimon.android.asianetautologin.LoginClassifier;
+import riddimon.android.asianetautologin.PhaseTimer;
+import riddimon.android.asianetautologin.ProbeEngine;
+import riddimon.android.asianetautologin.RequestTemplate;
+
+/**
+ * Logs in to a {@link FakePortal} over and over and reports how long it
+ * took until the internet was open, and how that time splits into the
+ * phases of a login: the probe which finds the portal, discovery of the
+ * form, the post and the probe which confirms it worked. Each phase runs
+ * through the same classes LoginService uses. The service itself needs a
+ * device, so the retries, caches and state it keeps around them are not
+ * part of the numbers.
+ * <pre>
+ * java -cp target/benchmarks.jar riddimon.android.asianetautologin.bench.TimeToInternet \
+ *     [runs] [latency ms] [failure rate] [seed]
+ * </pre>
+ * @author ridhishguhan
+ */
+public class TimeToInternet {
+	private static final String CONFIRM = "confirm";
+	private static final String TOTAL = "total";
+	private static final String[] PHASES = {PhaseTimer.PROBE, PhaseTimer.DISCOVERY
+			, PhaseTimer.POST, CONFIRM, TOTAL};
+	// runs left out of the numbers while the JIT settles
+	private static final int WARMUP = 20;
+
+	private final Context mContext = new Context();
+	private final FakePortal mPortal;
+	private final ProbeEngine mProbe;
+	private final FormScanner mScanner = new FormScanner(FormScanner.ABSOLUTE_URL);
+	private final LoginClassifier mClassifier = new LoginClassifier();
+
+	TimeToInternet(FakePortal portal) {
+		mPortal = portal;
+		mProbe = new ProbeEngine(Arrays.asList(new ProbeEngine.Target(portal
+				.getProbeUrl(), HttpStatus.SC_NO_CONTENT)), 10 * 1000);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		long latency = args.length > 1 ? Long.parseLong(args[1]) : 20;
+		double failureRate = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+		FakePortal portal = new FakePortal(latency, failureRate, 0, seed);
+		portal.start();
+		try {
+			TimeToInternet bench = new TimeToInternet(portal);
+			long[][] samples = new long[PHASES.length][runs];
+			int ok = 0;
+			int failed = 0;
+			for (int i = 0; i < WARMUP + runs; i++) {
+				portal.reset();
+				long[] run = bench.run();
+				if (i < WARMUP) continue;
+				if (run == null) {
+					failed++;
+					continue;
+				}
+				for (int p = 0; p < PHASES.length; p++) samples[p][ok] = run[p];
+				ok++;
+			}
+			System.out.println(String.format(Locale.US, "%d runs, %d failed, latency %d ms"
+					+ ", failure rate %.2f, %d requests, %d failed", runs, failed, latency
+					, failureRate, portal.getRequests(), portal.getFailures()));
+			System.out.println(String.format(Locale.US, "%-10s %9s %9s %9s %9s"
+					, "ms", "p50", "p90", "p99", "max"));
+			for (int p = 0; p < PHASES.length && ok > 0; p++) {
+				long[] sorted = Arrays.copyOf(samples[p], ok);
+				Arrays.sort(sorted);
+				System.out.println(String.format(Locale.US, "%-10s %9.2f %9.2f %9.2f %9.2f"
+						, PHASES[p], millis(sorted, 0.5), millis(sorted, 0.9)
+						, millis(sorted, 0.99), millis(sorted, 1)));
+			}
+		} finally {
+			portal.stop();
+		}
+	}
+
+	/**
+	 * @return the time each phase took in ns, or null if one of them failed
+	 */
+	long[] run() {
+		long[] phases = new long[PHASES.length];
+		long start = System.nanoTime();
+
+		long t = System.nanoTime();
+		ProbeEngine.Result probe = mProbe.probe(mContext);
+		phases[0] = System.nanoTime() - t;
+		if (probe.verdict != ProbeEngine.Verdict.PORTAL) return null;
+
+		t = System.nanoTime();
+		Uri uri = Uri.parse(probe.location);
+		FormScanner.Form form = HttpUtils.execute(mContext, new HttpGet(uri.getScheme()
+				+ "://" + uri.getAuthority()), new HttpUtils.BodyHandler<FormScanner.Form>() {
+			@Override
+			public FormScanner.Form handle(HttpResult head, InputStream body)
+					throws IOException {
+				if (body == null || head.getStatusCode() != HttpStatus.SC_OK) return null;
+				return mScanner.scan(body);
+			}
+		});
+		phases[1] = System.nanoTime() - t;
+		if (form == null) return null;
+
+		t = System.nanoTime();
+		RequestTemplate template = RequestTemplate.get("login", form.action
+				, "auth_user", FakePortal.USER, "auth_pass", FakePortal.PASSWORD
+				, "accept", "Login >>", "redirurl", "$PORTAL_REDIRURL$");
+		LoginClassifier.Result result = HttpUtils.execute(mContext, template.newRequest()
+				, new HttpUtils.BodyHandler<LoginClassifier.Result>() {
+			@Override
+			public LoginClassifier.Result handle(HttpResult head, InputStream body)
+					throws IOException {
+				if (body == null || head.getStatusCode() != HttpStatus.SC_OK) return null;
+				return mClassifier.classify(body, 0);
+			}
+		});
+		phases[2] = System.nanoTime() - t;
+		if (result != LoginClassifier.Result.SUCCESS) return null;
+
+		t = System.nanoTime();
+		boolean open = mProbe.probe(mContext).isOpen();
+		phases[3] = System.nanoTime() - t;
+		if (!open) return null;
+
+		phases[4] = System.nanoTime() - start;
+		return phases;
+	}
+
+	private static double millis(long[] sorted, double fraction) {
+		int rank = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, rank)] / 1e6;
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package riddimon.android.asianetautologin.bench;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.apache.http.HttpStatus;
+
+import android.content.Context;
+import riddimon.android.asianetautologin.LoginStatus;
+import riddimon.android.asianetautologin.ProbeEngine;
+import riddimon.android.asianetautologin.SessionState;
+
+/**
+ * Times what the credentials screen waits for before it can show whether
+ * we are logged in: the probe it used to run behind a progress dialog, and
+ * the {@link LoginStatus} snapshot it reads from the service now, both when
+ * the service has been running and when it was just restarted and seeds the
+ * status from the persisted session state. Binding to the service isn't
+ * part of the numbers.
+ * <pre>
+ * java -cp target/benchmarks.jar riddimon.android.asianetautologin.bench.TimeToStatus \
+ *     [runs] [latency ms] [seed]
+ * </pre>
+ * @author ridhishguhan
+ */
+public class TimeToStatus {
+	// runs left out of the numbers while the JIT settles
+	private static final int WARMUP = 20;
+
+	public static void main(String[] args) throws IOException {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		long latency = args.length > 1 ? Long.parseLong(args[1]) : 20;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+		FakePortal portal = new FakePortal(latency, 0, 0, seed);
+		portal.start();
+		try {
+			Context context = new Context();
+			SessionState.getInstance(context).moveTo(context, SessionState.State.ONLINE);
+			LoginStatus running = new LoginStatus(context);
+			running.update(true, LoginStatus.Confidence.VERIFIED);
+			ProbeEngine probe = new ProbeEngine(Arrays.asList(new ProbeEngine.Target(
+					portal.getProbeUrl(), HttpStatus.SC_NO_CONTENT)), 10 * 1000);
+
+			long[] probed = new long[runs];
+			long[] snapshot = new long[runs];
+			long[] restarted = new long[runs];
+			for (int i = 0; i < WARMUP + runs; i++) {
+				long t = System.nanoTime();
+				if (probe.probe(context).verdict == ProbeEngine.Verdict.NO_ROUTE) {
+					throw new IOException("Probe failed");
+				}
+				long p = System.nanoTime() - t;
+
+				t = System.nanoTime();
+				running.get();
+				long s = System.nanoTime() - t;
+
+				t = System.nanoTime();
+				new LoginStatus(context).get();
+				long r = System.nanoTime() - t;
+
+				if (i < WARMUP) continue;
+				probed[i - WARMUP] = p;
+				snapshot[i - WARMUP] = s;
+				restarted[i - WARMUP] = r;
+			}
+			System.out.println(String.format(Locale.US, "%d runs, latency %d ms", runs
+					, latency));
+			System.out.println(String.format(Locale.US, "%-10s %9s %9s %9s %9s"
+					, "ms", "p50", "p90", "p99", "max"));
+			print("probe", probed);
+			print("snapshot", snapshot);
+			print("restarted", restarted);
+		} finally {
+			portal.stop();
+		}
+	}
+
+	private static void print(String name, long[] samples) {
+		long[] sorted = samples.clone();
+		Arrays.sort(sorted);
+		System.out.println(String.format(Locale.US, "%-10s %9.3f %9.3f %9.3f %9.3f"
+				, name, millis(sorted, 0.5), millis(sorted, 0.9), millis(sorted, 0.99)
+				, millis(sorted, 1)));
+	}
+
+	private static double millis(long[] sorted, double fraction) {
+		int rank = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, rank)] / 1e6;
+	}
+}
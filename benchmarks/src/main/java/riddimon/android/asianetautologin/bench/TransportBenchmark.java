@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpGet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.content.Context;
+import riddimon.android.asianetautologin.ApacheTransport;
+import riddimon.android.asianetautologin.FormScanner;
+import riddimon.android.asianetautologin.HttpResult;
+import riddimon.android.asianetautologin.HttpUtils;
+import riddimon.android.asianetautologin.RequestTemplate;
+import riddimon.android.asianetautologin.UrlConnectionTransport;
+
+/**
+ * The two transports side by side, sending a keep alive and fetching the
+ * login page from a {@link FakePortal} which answers straight away, so
+ * what is measured is the client's own overhead. On the JVM, posts through
+ * HttpURLConnection are a millisecond slower than they would be on a
+ * device: before reusing a pooled connection for a streamed post, the JDK
+ * waits a millisecond to see whether the server has closed it.
+ * @author ridhishguhan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransportBenchmark {
+	@Param({"urlconnection", "apache"})
+	public String transport;
+
+	private final Context mContext = new Context();
+	private FakePortal mPortal;
+	private RequestTemplate mKeepAlive;
+	private HttpUtils.BodyHandler<FormScanner.Form> mScan;
+
+	@Setup
+	public void setUp() throws IOException {
+		mPortal = new FakePortal(0, 0, 0, 0);
+		mPortal.start();
+		HttpUtils.setTransport(mContext, "apache".equals(transport)
+				? new ApacheTransport(false, "bench")
+				: new UrlConnectionTransport(HttpUtils.userAgent));
+		HttpUtils.execute(mContext, RequestTemplate.get("login", mPortal.getActionUrl()
+				, "auth_user", FakePortal.USER, "auth_pass", FakePortal.PASSWORD
+				, "accept", "Login >>", "redirurl", "$PORTAL_REDIRURL$").newRequest(), 0);
+		if (!mPortal.isLoggedIn()) throw new IllegalStateException("Login failed");
+		mKeepAlive = RequestTemplate.get("keep_alive", mPortal.getActionUrl()
+				, "alive", "y", "un", FakePortal.USER);
+		final FormScanner scanner = new FormScanner(FormScanner.ABSOLUTE_URL);
+		mScan = new HttpUtils.BodyHandler<FormScanner.Form>() {
+			@Override
+			public FormScanner.Form handle(HttpResult head, InputStream body)
+					throws IOException {
+				synchronized (scanner) {
+					return body == null ? null : scanner.scan(body);
+				}
+			}
+		};
+	}
+
+	@TearDown
+	public void tearDown() {
+		mPortal.stop();
+	}
+
+	@Benchmark
+	public HttpResult keepAlive() {
+		return HttpUtils.execute(mContext, mKeepAlive.newRequest(), 0);
+	}
+
+	@Benchmark
+	public FormScanner.Form loginPage() {
+		return HttpUtils.execute(mContext, new HttpGet(mPortal.getActionUrl()), mScan);
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package riddimon.android.asianetautologin.bench;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+
+import android.content.Context;
+import android.net.Uri;
+import riddimon.android.asianetautologin.HttpResult;
+import riddimon.android.asianetautologin.HttpUtils;
+
+/**
+ * Times the first request to the portal host, the fetch of the login page,
+ * on a cold start and after the HEAD ConnectionWarmer sends to the portal
+ * host while the service starts. Every timed request asks the server to
+ * close the connection after it, so the next run starts without one. The
+ * portal is on the loopback interface, where a handshake costs next to
+ * nothing: on a real network a cold start pays a round trip more, and a
+ * DNS lookup the warmer does as well.
+ * <pre>
+ * java -cp target/benchmarks.jar riddimon.android.asianetautologin.bench.WarmStart \
+ *     [runs] [latency ms] [seed]
+ * </pre>
+ * @author ridhishguhan
+ */
+public class WarmStart {
+	// runs left out of the numbers while the JIT settles
+	private static final int WARMUP = 50;
+
+	private final Context mContext = new Context();
+	private final String mPage;
+	private final String mRoot;
+
+	WarmStart(FakePortal portal) {
+		mPage = portal.getActionUrl();
+		Uri uri = Uri.parse(mPage);
+		mRoot = uri.getScheme() + "://" + uri.getAuthority() + "/";
+	}
+
+	public static void main(String[] args) throws IOException {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		long latency = args.length > 1 ? Long.parseLong(args[1]) : 0;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+		FakePortal portal = new FakePortal(latency, 0, 0, seed);
+		portal.start();
+		try {
+			WarmStart bench = new WarmStart(portal);
+			long[] cold = new long[runs];
+			long[] warm = new long[runs];
+			for (int i = 0; i < WARMUP + runs; i++) {
+				long c = bench.run(false);
+				long w = bench.run(true);
+				if (i < WARMUP) continue;
+				cold[i - WARMUP] = c;
+				warm[i - WARMUP] = w;
+			}
+			System.out.println(String.format(Locale.US, "%d runs, latency %d ms", runs
+					, latency));
+			System.out.println(String.format(Locale.US, "%-10s %9s %9s %9s %9s"
+					, "ms", "p50", "p90", "p99", "max"));
+			print("cold", cold);
+			print("warm", warm);
+		} finally {
+			portal.stop();
+		}
+	}
+
+	/**
+	 * @param warmed whether the warmer ran first, which isn't timed
+	 * @return how long the login page took in ns
+	 */
+	long run(boolean warmed) throws IOException {
+		if (warmed && HttpUtils.execute(mContext, new HttpHead(mRoot), 0) == null) {
+			throw new IOException("Warming failed");
+		}
+		HttpGet get = new HttpGet(mPage);
+		get.addHeader("Connection", "close");
+		long start = System.nanoTime();
+		HttpResult page = HttpUtils.execute(mContext, get, 0);
+		long elapsed = System.nanoTime() - start;
+		if (page == null) throw new IOException("Fetching the login page failed");
+		return elapsed;
+	}
+
+	private static void print(String name, long[] samples) {
+		long[] sorted = samples.clone();
+		Arrays.sort(sorted);
+		System.out.println(String.format(Locale.US, "%-10s %9.3f %9.3f %9.3f %9.3f"
+				, name, millis(sorted, 0.5), millis(sorted, 0.9), millis(sorted, 0.99)
+				, millis(sorted, 1)));
+	}
+
+	private static double millis(long[] sorted, double fraction) {
+		int rank = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, rank)] / 1e6;
+	}
+}
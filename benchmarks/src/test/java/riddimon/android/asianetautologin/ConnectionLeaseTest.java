@@ -0,0 +1,263 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.Context;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs a few hundred requests of every kind HttpUtils makes through each
+ * transport and checks every connection taken was handed back. The Apache
+ * pool allows two connections per route, so a single leak blocks the
+ * requests after it and the test times out. Also checks, by the port they
+ * come from, that connections are reused and that the Apache pool closes
+ * idle ones when asked to, and that an aborted request doesn't sit out
+ * the read timeout.
+ * @author ridhishguhan
+ */
+public class ConnectionLeaseTest {
+	private static final int ROUNDS = 200;
+	// more than HttpUtils drains, so the connection is dropped
+	private static final int LARGE = 64 * 1024;
+	// well under the transports' 20 second timeout
+	private static final long ABORT_WAIT = 5 * 1000;
+
+	static {
+		// answers go out without waiting on delayed ACKs, see FakePortal
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final Context mContext = new Context();
+	private HttpServer mServer;
+	private ExecutorService mExecutor;
+	private String mBase;
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		mExecutor = Executors.newCachedThreadPool();
+		mServer.setExecutor(mExecutor);
+		mServer.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					answer(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		mServer.start();
+		mBase = "http://127.0.0.1:" + mServer.getAddress().getPort();
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop(0);
+		mExecutor.shutdownNow();
+	}
+
+	@Test(timeout = 60 * 1000)
+	public void urlConnectionReturnsEveryConnection() throws IOException {
+		check(new UrlConnectionTransport(HttpUtils.userAgent));
+	}
+
+	@Test(timeout = 60 * 1000)
+	public void apacheReturnsEveryConnection() throws IOException {
+		check(new ApacheTransport(false, "test"));
+	}
+
+	@Test(timeout = 60 * 1000)
+	public void unreleasedExchangeShowsAsOutstanding() throws IOException {
+		HttpTransport transport = new UrlConnectionTransport(HttpUtils.userAgent);
+		HttpTransport.Exchange exchange = transport.execute(new HttpGet(mBase
+				+ "/large"));
+		assertEquals(1, transport.getLeased() - transport.getReturned());
+		exchange.abort();
+		assertEquals(0, transport.getLeased() - transport.getReturned());
+	}
+
+	@Test(timeout = 60 * 1000)
+	public void urlConnectionLeavesIdleConnectionsToThePlatform() throws IOException {
+		HttpUtils.setTransport(mContext, new UrlConnectionTransport(HttpUtils.userAgent));
+		String port = remotePort();
+		assertEquals("connection not reused", port, remotePort());
+		HttpUtils.closeIdleConnections(mContext, 0);
+		assertEquals("pooled connection not used", port, remotePort());
+	}
+
+	@Test(timeout = 60 * 1000)
+	public void apacheClosesIdleConnections() throws IOException {
+		checkEviction(new ApacheTransport(false, "test"));
+	}
+
+	@Test(timeout = 60 * 1000)
+	public void urlConnectionAbortsABlockedRead() throws Exception {
+		checkAbort(new UrlConnectionTransport(HttpUtils.userAgent));
+	}
+
+	@Test(timeout = 60 * 1000)
+	public void apacheAbortsABlockedRead() throws Exception {
+		checkAbort(new ApacheTransport(false, "test"));
+	}
+
+	private void checkAbort(HttpTransport transport) throws Exception {
+		HttpUtils.setTransport(mContext, transport);
+		final AtomicReference<HttpResult> result = new AtomicReference<HttpResult>();
+		Thread worker = new Thread() {
+			@Override
+			public void run() {
+				result.set(HttpUtils.execute(mContext, new HttpGet(mBase + "/hang"), 0));
+			}
+		};
+		worker.start();
+		while (HttpUtils.getOutstandingConnections() == 0) Thread.sleep(10);
+		// let it get to the read
+		Thread.sleep(200);
+		long start = System.currentTimeMillis();
+		worker.interrupt();
+		HttpUtils.abort(worker);
+		worker.join(ABORT_WAIT);
+		assertFalse("request still blocked", worker.isAlive());
+		assertTrue(System.currentTimeMillis() - start < ABORT_WAIT);
+		assertNull(result.get());
+		assertEquals(0, HttpUtils.getOutstandingConnections());
+	}
+
+	private void checkEviction(HttpTransport transport) throws IOException {
+		HttpUtils.setTransport(mContext, transport);
+		String port = remotePort();
+		assertEquals("connection not reused", port, remotePort());
+		HttpUtils.closeIdleConnections(mContext, 0);
+		assertFalse("idle connection not closed", port.equals(remotePort()));
+	}
+
+	private String remotePort() {
+		return HttpUtils.execute(mContext, new HttpGet(mBase + "/small"), 4096)
+				.getFirstHeader("X-Remote-Port");
+	}
+
+	private void check(HttpTransport transport) throws IOException {
+		HttpUtils.setTransport(mContext, transport);
+		int leased = transport.getLeased();
+		int returned = transport.getReturned();
+		for (int i = 0; i < ROUNDS; i++) {
+			// read in full
+			HttpResult small = HttpUtils.execute(mContext, new HttpGet(mBase + "/small")
+					, 4096);
+			assertEquals(200, small.getStatusCode());
+			assertEquals(1024, small.getBody().length);
+			// not read at all, too long to drain
+			assertNotNull(HttpUtils.execute(mContext, new HttpGet(mBase + "/large"), 0));
+			// read in part
+			assertEquals(Integer.valueOf(100), HttpUtils.execute(mContext, new HttpGet(
+					mBase + "/large"), new HttpUtils.BodyHandler<Integer>() {
+				@Override
+				public Integer handle(HttpResult head, InputStream body)
+						throws IOException {
+					return body.read(new byte[100]);
+				}
+			}));
+			// the handler fails
+			assertNull(HttpUtils.execute(mContext, new HttpGet(mBase + "/small")
+					, new HttpUtils.BodyHandler<Object>() {
+				@Override
+				public Object handle(HttpResult head, InputStream body)
+						throws IOException {
+					throw new IOException("handler failed");
+				}
+			}));
+			// no body
+			assertEquals(204, HttpUtils.execute(mContext, new HttpGet(mBase + "/empty")
+					, 0).getStatusCode());
+			assertEquals(200, HttpUtils.execute(mContext, new HttpHead(mBase + "/small")
+					, 0).getStatusCode());
+			// an error page
+			assertEquals(500, HttpUtils.execute(mContext, new HttpGet(mBase + "/error")
+					, 4096).getStatusCode());
+			// a post, like a login
+			HttpPost post = new HttpPost(mBase + "/small");
+			post.setEntity(new ByteArrayEntity("alive=y&un=test".getBytes("ISO-8859-1")));
+			assertEquals(200, HttpUtils.execute(mContext, post, 0).getStatusCode());
+		}
+		assertEquals(8 * ROUNDS, transport.getLeased() - leased);
+		assertEquals(8 * ROUNDS, transport.getReturned() - returned);
+		assertEquals(0, HttpUtils.getOutstandingConnections());
+	}
+
+	private static void answer(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		while (in.read() != -1) {
+			// the post is read and ignored
+		}
+		exchange.getResponseHeaders().set("X-Remote-Port", String.valueOf(exchange
+				.getRemoteAddress().getPort()));
+		String path = exchange.getRequestURI().getPath();
+		if (path.equals("/hang")) {
+			try {
+				// until the server is stopped
+				Thread.sleep(60 * 1000);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+		if (path.equals("/empty")) {
+			exchange.sendResponseHeaders(204, -1);
+			return;
+		}
+		int status = path.equals("/error") ? 500 : 200;
+		byte[] body = new byte[path.equals("/large") ? LARGE : 1024];
+		Arrays.fill(body, (byte) 'a');
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+}
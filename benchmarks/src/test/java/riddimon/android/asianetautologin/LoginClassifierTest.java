@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import riddimon.android.asianetautologin.LoginClassifier.Result;
+import riddimon.android.asianetautologin.bench.Pages;
+
+/**
+ * Classifies the recorded pages and a few made up ones, with the page
+ * coming in chunks of several sizes so markers are split across reads.
+ * @author ridhishguhan
+ */
+public class LoginClassifierTest {
+	private static final int[] CHUNKS = {1, 3, 7, 4096};
+
+	@Test
+	public void recordedPages() throws IOException {
+		check(Result.SUCCESS, Pages.load(Pages.LOGOUT));
+		check(Result.BAD_CREDENTIALS, Pages.load(Pages.LOGIN_REJECTED));
+		check(Result.FORM_RETURNED, Pages.load(Pages.LOGIN_SMALL));
+		check(Result.FORM_RETURNED, Pages.load(Pages.LOGIN_LARGE));
+	}
+
+	@Test
+	public void quotaMentionedOnSuccessPage() throws IOException {
+		check(Result.SUCCESS, "<html><body><p>Your remaining quota is 5 GB."
+				+ " Your plan validity is 30 days.</p>"
+				+ "<form><input name=\"logout_id\" type=\"hidden\"/></form>");
+		check(Result.SUCCESS, "<p>Your quota exceeded alert is set at 90%.</p>"
+				+ "<p>You are now logged in.</p>");
+	}
+
+	@Test
+	public void quotaRefusal() throws IOException {
+		check(Result.QUOTA_EXHAUSTED, "<form><input name=\"auth_pass\"/></form>"
+				+ "<p>Your data QUOTA has been EXHAUSTED.</p>");
+		check(Result.QUOTA_EXHAUSTED, "<p>Sorry, your voucher has expired.</p>"
+				+ "<input name=\"auth_pass\"/>");
+	}
+
+	@Test
+	public void otherRefusals() throws IOException {
+		check(Result.ALREADY_LOGGED_IN, "You are already logged in from another"
+				+ " device. <input name=auth_pass>");
+		check(Result.BAD_CREDENTIALS, "<input name=auth_pass> Invalid username");
+	}
+
+	@Test
+	public void nothingKnown() throws IOException {
+		check(Result.UNKNOWN, "<html><body>Welcome to Asianet</body></html>");
+		check(Result.UNKNOWN, "");
+	}
+
+	@Test
+	public void stopsAtLimit() throws IOException {
+		String page = "<html>" + repeat(' ', 8192) + "logout_id</html>";
+		assertEquals(Result.UNKNOWN, new LoginClassifier().classify(
+				new ByteArrayInputStream(page.getBytes("ISO-8859-1")), 4096));
+	}
+
+	private static void check(Result expected, String page) throws IOException {
+		check(expected, page.getBytes("ISO-8859-1"));
+	}
+
+	private static void check(Result expected, byte[] page) throws IOException {
+		LoginClassifier classifier = new LoginClassifier();
+		for (int chunk : CHUNKS) {
+			assertEquals("chunks of " + chunk, expected, classifier.classify(
+					new ChunkedInputStream(page, chunk), 0));
+		}
+	}
+
+	private static String repeat(char c, int count) {
+		StringBuilder sb = new StringBuilder(count);
+		for (int i = 0; i < count; i++) sb.append(c);
+		return sb.toString();
+	}
+
+	/**
+	 * Hands out at most a chunk per read, like a slow network
+	 */
+	private static class ChunkedInputStream extends ByteArrayInputStream {
+		private final int mChunk;
+
+		ChunkedInputStream(byte[] buf, int chunk) {
+			super(buf);
+			mChunk = chunk;
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			return super.read(b, off, Math.min(len, mChunk));
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package riddimon.android.asianetautologin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.Context;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks which answers the probe takes for the portal, and that the page
+ * a portal serves in place of an endpoint is handed on for discovery.
+ * @author ridhishguhan
+ */
+public class ProbeEngineTest {
+	private static final String PORTAL = "http://10.0.0.1:8000/index.php?zone=asianet";
+
+	static {
+		// answers go out without waiting on delayed ACKs, see FakePortal
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final Context mContext = new Context();
+	private HttpServer mServer;
+	private ExecutorService mExecutor;
+	private String mBase;
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		mExecutor = Executors.newCachedThreadPool();
+		mServer.setExecutor(mExecutor);
+		mServer.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					String path = exchange.getRequestURI().getPath();
+					if (path.equals("/generate_204")) {
+						exchange.sendResponseHeaders(HttpStatus.SC_NO_CONTENT, -1);
+					} else if (path.equals("/moved")) {
+						exchange.getResponseHeaders().set("Location", PORTAL);
+						exchange.sendResponseHeaders(HttpStatus.SC_MOVED_TEMPORARILY, -1);
+					} else {
+						exchange.sendResponseHeaders(HttpStatus.SC_OK, -1);
+					}
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		mServer.start();
+		mBase = "http://127.0.0.1:" + mServer.getAddress().getPort();
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop(0);
+		mExecutor.shutdownNow();
+	}
+
+	@Test
+	public void redirectAwayFromA204EndpointIsThePortal() {
+		ProbeEngine.Target target = new ProbeEngine.Target(
+				"http://clients3.google.com/generate_204", HttpStatus.SC_NO_CONTENT);
+		assertEquals(ProbeEngine.Verdict.PORTAL, target.interpret(
+				HttpStatus.SC_MOVED_TEMPORARILY, PORTAL));
+		assertNull(target.interpret(HttpStatus.SC_MOVED_PERMANENTLY
+				, "https://clients3.google.com/generate_204"));
+	}
+
+	@Test
+	public void redirectAwayFromAPageSaysNothing() {
+		ProbeEngine.Target target = new ProbeEngine.Target("http://www.google.co.in"
+				, HttpStatus.SC_OK);
+		assertNull(target.interpret(HttpStatus.SC_MOVED_PERMANENTLY
+				, "http://www.google.com/"));
+		assertEquals(ProbeEngine.Verdict.OPEN, target.interpret(HttpStatus.SC_OK, null));
+	}
+
+	@Test(timeout = 30 * 1000)
+	public void pageServedInPlaceIsScanned() {
+		ProbeEngine.Result result = probe(mBase + "/intercepted", HttpStatus.SC_NO_CONTENT);
+		assertEquals(ProbeEngine.Verdict.PORTAL, result.verdict);
+		assertEquals(mBase + "/intercepted", result.location);
+
+		result = probe(mBase + "/moved", HttpStatus.SC_NO_CONTENT);
+		assertEquals(ProbeEngine.Verdict.PORTAL, result.verdict);
+		assertEquals(PORTAL, result.location);
+
+		result = probe(mBase + "/generate_204", HttpStatus.SC_NO_CONTENT);
+		assertEquals(ProbeEngine.Verdict.OPEN, result.verdict);
+		assertNull(result.location);
+	}
+
+	private ProbeEngine.Result probe(String url, int expectedStatus) {
+		return new ProbeEngine(Collections.singletonList(new ProbeEngine.Target(url
+				, expectedStatus)), 10 * 1000).probe(mContext);
+	}
+}
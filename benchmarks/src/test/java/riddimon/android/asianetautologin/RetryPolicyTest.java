@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package riddimon.android.asianetautologin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+import riddimon.android.asianetautologin.RetryPolicy.Failure;
+
+/**
+ * Checks the delays stay within their exponential bounds, and that runs
+ * and the budget shared between them come to an end.
+ * @author ridhishguhan
+ */
+public class RetryPolicyTest {
+	// draws per attempt, so the jitter covers its range
+	private static final int SAMPLES = 200;
+
+	@Test
+	public void delaysGrowExponentiallyUpToTheCap() {
+		for (int attempt = 1; attempt <= 10; attempt++) {
+			long bound = Math.min(RetryPolicy.MAX_DELAY, RetryPolicy.BASE_DELAY
+					<< (attempt - 1));
+			long min = Long.MAX_VALUE;
+			long max = 0;
+			for (int i = 0; i < SAMPLES; i++) {
+				RetryPolicy policy = new RetryPolicy(RetryPolicy.BASE_DELAY
+						, RetryPolicy.MAX_DELAY, attempt + 1, 1);
+				long delay = policy.next(Failure.TIMEOUT, attempt);
+				min = Math.min(min, delay);
+				max = Math.max(max, delay);
+			}
+			assertTrue("attempt " + attempt + " waited " + max, max <= bound);
+			assertTrue("attempt " + attempt + " waited " + min, min >= bound / 2);
+			assertTrue(max <= RetryPolicy.MAX_DELAY);
+		}
+	}
+
+	@Test
+	public void runEndsAfterMaxAttempts() {
+		RetryPolicy policy = defaultPolicy();
+		for (int attempt = 1; attempt < RetryPolicy.MAX_ATTEMPTS; attempt++) {
+			assertTrue(policy.next(Failure.NO_ROUTE, attempt) > 0);
+		}
+		assertEquals(-1, policy.next(Failure.NO_ROUTE, RetryPolicy.MAX_ATTEMPTS));
+	}
+
+	@Test
+	public void budgetIsSharedUntilReset() {
+		RetryPolicy policy = defaultPolicy();
+		int retries = 0;
+		// runs of one failed attempt each, every one takes a retry
+		while (policy.next(Failure.TIMEOUT, 1) >= 0) retries++;
+		assertEquals(RetryPolicy.SESSION_BUDGET, retries);
+		assertEquals(0, policy.getRemaining());
+		assertEquals(-1, policy.fallback(Failure.TIMEOUT));
+
+		policy.reset();
+		assertEquals(RetryPolicy.SESSION_BUDGET, policy.getRemaining());
+		assertTrue(policy.next(Failure.TIMEOUT, 1) > 0);
+	}
+
+	@Test
+	public void rejectionIsRetriedOnce() {
+		RetryPolicy policy = defaultPolicy();
+		assertTrue(policy.next(Failure.REJECTED, 1) > 0);
+		assertEquals(-1, policy.next(Failure.REJECTED, 2));
+		assertTrue(policy.fallback(Failure.REJECTED) < 0);
+		// nothing was taken out of the budget for them
+		assertEquals(RetryPolicy.SESSION_BUDGET - 1, policy.getRemaining());
+	}
+
+	@Test
+	public void fallbackWaitsTheLongestDelay() {
+		RetryPolicy policy = defaultPolicy();
+		long delay = policy.fallback(Failure.TIMEOUT);
+		assertTrue(delay >= RetryPolicy.MAX_DELAY / 2 && delay <= RetryPolicy.MAX_DELAY);
+	}
+
+	@Test
+	public void classify() {
+		assertEquals(Failure.REJECTED, RetryPolicy.classify(null));
+		assertEquals(Failure.TIMEOUT, RetryPolicy.classify(new SocketTimeoutException()));
+		assertEquals(Failure.NO_ROUTE, RetryPolicy.classify(new ConnectException()));
+		assertEquals(Failure.NO_ROUTE, RetryPolicy.classify(new UnknownHostException()));
+		assertEquals(Failure.NO_ROUTE, RetryPolicy.classify(new IOException()));
+	}
+
+	private static RetryPolicy defaultPolicy() {
+		return new RetryPolicy(RetryPolicy.BASE_DELAY, RetryPolicy.MAX_DELAY
+				, RetryPolicy.MAX_ATTEMPTS, RetryPolicy.SESSION_BUDGET);
+	}
+}
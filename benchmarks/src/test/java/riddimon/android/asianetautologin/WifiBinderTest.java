@@ -0,0 +1,214 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+
+/**
+ * Runs WifiBinder on a pretend network: a WiFi manager that says what we
+ * are associated with, a connectivity manager that records the routes it
+ * is asked for, and the host names in src/test/resources/hosts.
+ * @author ridhishguhan
+ */
+public class WifiBinderTest {
+	// 192.168.1.10 and 192.168.1.11, least significant byte first
+	private static final int ADDRESS = 0x0a01a8c0;
+	private static final int OTHER_ADDRESS = 0x0b01a8c0;
+	private static final int PORTAL_1 = 0x010a0a0a;
+	private static final int PORTAL_2 = 0x020a0a0a;
+
+	/**
+	 * Records routes, and can hold them up until told to go on
+	 */
+	private static class RecordingConnectivity extends ConnectivityManager {
+		final List<Integer> routes = new ArrayList<Integer>();
+		volatile CountDownLatch gate = new CountDownLatch(0);
+		volatile NetworkInfo active;
+
+		@Override
+		public NetworkInfo getActiveNetworkInfo() {
+			return active;
+		}
+
+		@Override
+		public boolean requestRouteToHost(int networkType, int hostAddress) {
+			assertEquals(TYPE_WIFI, networkType);
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (this) {
+				routes.add(hostAddress);
+				notifyAll();
+			}
+			return true;
+		}
+
+		synchronized List<Integer> awaitRoutes(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (routes.size() < count && System.currentTimeMillis() < deadline) {
+				wait(100);
+			}
+			return new ArrayList<Integer>(routes);
+		}
+	}
+
+	private final Context mContext = new Context();
+	private final WifiManager mWifi = new WifiManager();
+	private final RecordingConnectivity mConnectivity = new RecordingConnectivity();
+	private WifiBinder mBinder;
+
+	@Before
+	public void setUp() {
+		mContext.putSystemService(Context.WIFI_SERVICE, mWifi);
+		mContext.putSystemService(Context.CONNECTIVITY_SERVICE, mConnectivity);
+		mWifi.setConnectionInfo(new WifiInfo("\"Asianet\"", "00:11:22:33:44:55", ADDRESS));
+		mBinder = new WifiBinder(mContext);
+	}
+
+	@Test(timeout = 10 * 1000)
+	public void bindWaitsForTheRoute() throws Exception {
+		mConnectivity.gate = new CountDownLatch(1);
+		ExecutorService requests = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<Boolean>> bound = new ArrayList<Future<Boolean>>();
+			for (int i = 0; i < 2; i++) {
+				bound.add(requests.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return mBinder.bind(new HttpGet("http://portal.test/index.php"));
+					}
+				}));
+			}
+			Thread.sleep(200);
+			assertFalse(bound.get(0).isDone());
+			mConnectivity.gate.countDown();
+			assertTrue(bound.get(0).get());
+			assertTrue(bound.get(1).get());
+		} finally {
+			requests.shutdown();
+		}
+		// routed once, however many requests asked for it
+		assertEquals(2, mConnectivity.routes.size());
+	}
+
+	@Test(timeout = 10 * 1000)
+	public void bindGivesUpOnASlowRoute() throws InterruptedException {
+		mConnectivity.gate = new CountDownLatch(1);
+		long start = System.currentTimeMillis();
+		assertFalse(mBinder.bind(new HttpGet("http://portal.test/index.php")));
+		assertTrue(System.currentTimeMillis() - start >= WifiBinder.ROUTE_WAIT);
+		// the route still lands, for the request that is tried again
+		mConnectivity.gate.countDown();
+		assertEquals(2, mConnectivity.awaitRoutes(2).size());
+		waitUntilBound("portal.test");
+	}
+
+	@Test
+	public void leaksOnlyWhileAnotherNetworkIsTheDefault() {
+		assertFalse(mBinder.canLeak());
+		mConnectivity.active = new NetworkInfo();
+		assertTrue(mBinder.canLeak());
+		mConnectivity.active = new NetworkInfo() {
+			@Override
+			public int getType() {
+				return ConnectivityManager.TYPE_WIFI;
+			}
+		};
+		assertFalse(mBinder.canLeak());
+		mConnectivity.active = new NetworkInfo();
+		mWifi.setConnectionInfo(null);
+		assertFalse(mBinder.canLeak());
+	}
+
+	@Test(timeout = 10 * 1000)
+	public void routesEveryAddressOfTheHost() throws InterruptedException {
+		assertTrue(mBinder.route("portal.test"));
+		List<Integer> routes = mConnectivity.awaitRoutes(2);
+		assertEquals(Arrays.asList(PORTAL_1, PORTAL_2), sorted(routes));
+	}
+
+	@Test(timeout = 10 * 1000)
+	public void routesAgainOnANewLease() throws InterruptedException {
+		assertTrue(mBinder.route("probe.test"));
+		assertTrue(mBinder.route("probe.test"));
+		assertTrue(mBinder.bind(new HttpGet("http://probe.test/generate_204")));
+		assertEquals(1, mConnectivity.routes.size());
+
+		mWifi.setConnectionInfo(new WifiInfo("\"Asianet\"", "00:11:22:33:44:55"
+				, OTHER_ADDRESS));
+		assertTrue(mBinder.bind(new HttpGet("http://probe.test/generate_204")));
+		assertEquals(2, mConnectivity.routes.size());
+
+		mBinder.reset();
+		assertTrue(mBinder.route("probe.test"));
+		assertEquals(3, mConnectivity.routes.size());
+	}
+
+	@Test
+	public void nothingIsRoutedWithoutWifi() throws InterruptedException {
+		mWifi.setConnectionInfo(null);
+		assertFalse(mBinder.bind(new HttpGet("http://portal.test/")));
+		assertFalse(mBinder.route("portal.test"));
+		Thread.sleep(100);
+		assertTrue(mConnectivity.routes.isEmpty());
+	}
+
+	@Test
+	public void unknownHostIsNotRouted() {
+		assertFalse(mBinder.route("nowhere.test"));
+		assertTrue(mConnectivity.routes.isEmpty());
+	}
+
+	private void waitUntilBound(String host) throws InterruptedException {
+		while (!mBinder.bind(new HttpGet("http://" + host + "/"))) {
+			Thread.sleep(10);
+		}
+	}
+
+	private static List<Integer> sorted(List<Integer> list) {
+		List<Integer> copy = new ArrayList<Integer>(list);
+		Collections.sort(copy);
+		return copy;
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Receives the keep alive and retry alarms. The CPU is only guaranteed to
+ * stay awake until onReceive returns, so the {@link WakeBudget} is taken
+ * here, before the service is started, and released by the service once
+ * its session engine goes idle.
+ * @author ridhishguhan
+ */
+public class AlarmReceiver extends BroadcastReceiver {
+	@Override
+	public void onReceive(Context context, Intent intent) {
+		String action = intent.getAction();
+		WakeBudget.getInstance(context).hold(LoginService.ACTION_KEEP_ALIVE
+				.equals(action));
+		Intent service = new Intent(action);
+		service.setClass(context, LoginService.class);
+		context.startService(service);
+	}
+
+	/**
+	 * @return the intent for an alarm which runs the action in the service
+	 */
+	static PendingIntent getIntent(Context context, int requestCode, String action) {
+		Intent intent = new Intent(action);
+		intent.setClass(context, AlarmReceiver.class);
+		return PendingIntent.getBroadcast(context, requestCode, intent
+				, PendingIntent.FLAG_CANCEL_CURRENT);
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Sends requests through the Apache client held by {@link HttpManager}.
+ * Used on Froyo, where HttpURLConnection can't be relied upon.
+ * @author ridhishguhan
+ */
+public class ApacheTransport implements HttpTransport {
+	private final Boolean mDebug;
+	private final String mVersion;
+
+	public ApacheTransport(Boolean debug, String version) {
+		mDebug = debug;
+		mVersion = version;
+	}
+
+	@Override
+	public Exchange execute(final HttpUriRequest req) throws IOException {
+		final HttpResponse response = HttpManager.execute(req, mDebug, mVersion);
+		return new Exchange() {
+			@Override
+			public HttpResult getHead() {
+				return new HttpResult(response);
+			}
+
+			@Override
+			public InputStream getBody() throws IOException {
+				// without an entity the client has released the connection already
+				HttpEntity entity = response.getEntity();
+				return entity == null ? null : entity.getContent();
+			}
+
+			@Override
+			public void abort() {
+				req.abort();
+			}
+		};
+	}
+
+	@Override
+	public void closeIdleConnections(long idleMillis) {
+		HttpManager.closeIdleConnections(idleMillis);
+	}
+
+	@Override
+	public int getLeased() {
+		return HttpManager.getLeased();
+	}
+
+	@Override
+	public int getReturned() {
+		return HttpManager.getReturned();
+	}
+
+	@Override
+	public String getPoolStats() {
+		return "pooled=" + HttpManager.getConnectionsInPool();
+	}
+}
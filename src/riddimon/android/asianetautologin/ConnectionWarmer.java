@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.http.client.methods.HttpHead;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+/**
+ * Gets the network ready for the login while the service is starting up.
+ * As soon as WiFi associates, sockets pooled on the previous network are
+ * dropped, the probe hosts and the last known portal host are resolved and
+ * routed over WiFi, and a connection to the portal host is opened and left
+ * in the pool, so the login POST doesn't pay for DNS and the TCP handshake.
+ * @author ridhishguhan
+ */
+public class ConnectionWarmer {
+	private static final Logger logger = LoggerFactory.getLogger(ConnectionWarmer.class);
+
+	private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+			new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "warmer");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private static ConnectionWarmer instance;
+
+	// elapsed realtime of the last association, 0 once we got online
+	private volatile long mAssociatedAt = 0;
+	private volatile boolean mWarmed = false;
+	private long mWarmups = 0;
+	private long mWarmupTime = 0;
+	private long mOnline = 0;
+	private long mOnlineTime = 0;
+
+	private ConnectionWarmer() {
+	}
+
+	public static synchronized ConnectionWarmer getInstance() {
+		if (instance == null)
+			instance = new ConnectionWarmer();
+		return instance;
+	}
+
+	/**
+	 * Called when WiFi associated with the configured network. Returns right
+	 * away, the work happens in the background.
+	 */
+	public void onAssociated(Context context) {
+		final Context appContext = context.getApplicationContext();
+		mAssociatedAt = SystemClock.elapsedRealtime();
+		mWarmed = false;
+		// sockets from the previous network are dead, and with stale checking
+		// off the client would only find out by failing a request on them
+		HttpUtils.closeIdleConnections(context, 0);
+		WifiBinder.getInstance(context).reset();
+		sExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				warm(appContext);
+			}
+		});
+	}
+
+	private void warm(Context context) {
+		long start = SystemClock.elapsedRealtime();
+		WifiBinder binder = WifiBinder.getInstance(context);
+		for (ProbeEngine.Target target : ProbeEngine.getDefault().getTargets()) {
+			route(binder, Uri.parse(target.url).getHost());
+		}
+		ProfileManager.Profile profile = ProfileManager.getInstance().match(context);
+		String url = profile == null ? null : profile.url;
+		boolean warmed = false;
+		if (!TextUtils.isEmpty(url)) {
+			Uri uri = Uri.parse(url);
+			route(binder, uri.getHost());
+			String root = uri.getScheme() + "://" + uri.getAuthority() + "/";
+			// the response is drained, which leaves the connection in the pool
+			warmed = HttpUtils.execute(context, new HttpHead(root), 0) != null;
+		}
+		long elapsed = SystemClock.elapsedRealtime() - start;
+		mWarmed = warmed;
+		synchronized (this) {
+			mWarmups++;
+			mWarmupTime += elapsed;
+		}
+		logger.info("Warmed up in {} ms, portal connection : {}", elapsed, warmed);
+	}
+
+	private static void route(WifiBinder binder, String host) {
+		if (TextUtils.isEmpty(host)) return;
+		// resolving lands the addresses in the VM's cache as well
+		if (!binder.route(host)) logger.debug("Could not route {}", host);
+	}
+
+	/**
+	 * Called when the internet became reachable, records the time it took
+	 * since association
+	 */
+	public void onOnline() {
+		long associatedAt = mAssociatedAt;
+		if (associatedAt == 0) return;
+		mAssociatedAt = 0;
+		long elapsed = SystemClock.elapsedRealtime() - associatedAt;
+		synchronized (this) {
+			mOnline++;
+			mOnlineTime += elapsed;
+		}
+		logger.info("Online {} ms after association (warm : {}), {}"
+				, new Object[] {elapsed, mWarmed, this});
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "warmups=" + mWarmups
+				+ ", avgWarmup=" + (mWarmups == 0 ? 0 : mWarmupTime / mWarmups) + "ms"
+				+ ", avgToOnline=" + (mOnline == 0 ? 0 : mOnlineTime / mOnline) + "ms";
+	}
+}
@@ -39,10 +39,14 @@ import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.support.v4.content.LocalBroadcastManager;
 import android.text.TextUtils;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.CheckBox;
@@ -56,6 +60,7 @@ public class CredentialActivity extends Activity implements OnClickListener {
 	private Button mLogout;
 	private Button mSave;
 	private CheckBox mShowNotification;
+	private CheckBox mLazyKeepAlive;
 	private EditText mUsername;
 	private EditText mPassword;
 	private Spinner mSsid;
@@ -69,10 +74,13 @@ public class CredentialActivity extends Activity implements OnClickListener {
 	private int[] mStaySignedInNumbers = null;
 	private List<String> mStaySignedInItems;
 	private LoginService mLoginService;
+	// elapsed realtime of onCreate, 0 once the status has been shown
+	private long mCreated;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		mCreated = SystemClock.elapsedRealtime();
 		setContentView(R.layout.credential_screen);
 
 		mStaySignedInNumbers = getResources().getIntArray(R.array.signed_in_for);
@@ -86,6 +94,7 @@ public class CredentialActivity extends Activity implements OnClickListener {
 		mPassword = (EditText) findViewById(R.id.et_password);
 		mSsid = (Spinner) findViewById(R.id.sp_ssid);
 		mShowNotification = (CheckBox) findViewById(R.id.cb_show);
+		mLazyKeepAlive = (CheckBox) findViewById(R.id.cb_lazy);
 		mStaySignedInFor = (Spinner) findViewById(R.id.sp_signedinfor);
 		mLogin = (Button) findViewById(R.id.bt_login);
 		mLogout = (Button) findViewById(R.id.bt_logout);
@@ -100,29 +109,30 @@ public class CredentialActivity extends Activity implements OnClickListener {
 		mSave.setOnClickListener(this);
 		refreshNetworkSpinnerIfNecessary();
 
-		String username = SettingsManager.getString(this, SettingsManager
-				.USERNAME, null);
-		String password = SettingsManager.getString(this, SettingsManager
-				.PASSWORD, null);
-		String ssid = SettingsManager.getString(this, SettingsManager
-				.SSID, null);
-		boolean showNotif = SettingsManager.getBoolean(this, SettingsManager
-				.SHOW_NOTIF, true);
-		int staySignedInFor = SettingsManager.getInt(this, SettingsManager
-				.KEEP_ALIVE, -1);
-
-		if (!TextUtils.isEmpty(username)) {
-			mUsername.setText(username);
-		}
-		if (!TextUtils.isEmpty(password)) {
-			mPassword.setText(password);
-		}
+		SettingsManager.Config config = SettingsManager.getConfig(this);
+		String ssid = config.ssid;
+		boolean showNotif = config.showNotification;
+		int staySignedInFor = config.keepAlive;
+
 		if (!TextUtils.isEmpty(ssid)) {
 			if (mSsids.size() > 0) {
 				int index = mSsids.indexOf(ssid);
 				mSsid.setSelection(index == -1 ? 0 : index);
 			}
 		}
+		// each network has its own credentials
+		showProfile((String) mSsid.getSelectedItem());
+		mSsid.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+			@Override
+			public void onItemSelected(AdapterView<?> parent, View view, int position
+					, long id) {
+				showProfile((String) parent.getItemAtPosition(position));
+			}
+
+			@Override
+			public void onNothingSelected(AdapterView<?> parent) {
+			}
+		});
 
 		int selection = 0;
 		if (staySignedInFor == -1) selection = mStaySignedInNumbers.length;
@@ -136,12 +146,8 @@ public class CredentialActivity extends Activity implements OnClickListener {
 		mStaySignedInFor.setSelection(selection);
 
 		mShowNotification.setChecked(showNotif);
+		mLazyKeepAlive.setChecked(config.lazyKeepAlive);
 		enableBroadcastReceiver(true);
-
-		mProgressDialog = new ProgressDialog(this);
-		mProgressDialog.setTitle(R.string.status);
-		mProgressDialog.setMessage(getString(R.string.checking_status));
-		mProgressDialog.show();
 	}
 
 	@Override
@@ -159,6 +165,7 @@ public class CredentialActivity extends Activity implements OnClickListener {
         	closeProgressDialog();
         	enableBroadcastReceiver(false);
 	        if (mBound) {
+	            mLoginService.getLoginStatus().removeListener(mStatusListener);
 	            unbindService(mConnection);
 	            mBound = false;
 	        }
@@ -170,6 +177,9 @@ public class CredentialActivity extends Activity implements OnClickListener {
     	super.onDestroy();
     	closeProgressDialog();
     	enableBroadcastReceiver(false);
+    	if (mLoginService != null) {
+    		mLoginService.getLoginStatus().removeListener(mStatusListener);
+    	}
     }
 
     /** Defines callbacks for service binding, passed to bindService() */
@@ -182,12 +192,11 @@ public class CredentialActivity extends Activity implements OnClickListener {
             LoginBinder binder = (LoginBinder) service;
             mLoginService = binder.getService();
             mBound = true;
-            runOnUiThread(new Runnable() {
-            	@Override
-            	public void run() {
-                    checkIfLoggedInAndUpdate();
-            	}
-            });
+            // show what the service knows, and have it checked if that is old
+            LoginStatus status = mLoginService.getLoginStatus();
+            status.addListener(mStatusListener);
+            showStatus(status.get());
+            status.revalidate();
         }
 
         @Override
@@ -252,13 +261,26 @@ public class CredentialActivity extends Activity implements OnClickListener {
 		mRegistered = enable;
     }
 
+	/**
+	 * Fills in the credentials saved for a network, or clears them if there
+	 * are none
+	 */
+	private void showProfile(String ssid) {
+		ProfileManager.Profile profile = TextUtils.isEmpty(ssid) ? null
+				: ProfileManager.getInstance().match(this, ssid, null);
+		mUsername.setText(profile == null ? null : profile.username);
+		mPassword.setText(profile == null ? null : profile.password);
+	}
+
     private void updateLoggedInMode() {
 //    	mUsername.setEnabled(!mLoggedIn);
 //    	mPassword.setEnabled(!mLoggedIn);
 //    	mSsid.setEnabled(!mLoggedIn);
     	mLogin.setEnabled(!mLoggedIn);
-    	mLogout.setEnabled(mLoggedIn && !TextUtils.isEmpty(SettingsManager
-    			.getString(this, SettingsManager.URL, null)));
+    	// logout goes to the portal of the network we are on
+    	ProfileManager.Profile profile = ProfileManager.getInstance().match(this);
+    	mLogout.setEnabled(mLoggedIn && profile != null
+    			&& !TextUtils.isEmpty(profile.url));
 
     	if (mLoggedInElsewhere) {
     		showElsewhereDialog();
@@ -282,31 +304,70 @@ public class CredentialActivity extends Activity implements OnClickListener {
     	}
     }
 
+	/**
+	 * Tells the user why the portal turned a login down, if it said so
+	 * @param result name of a LoginClassifier.Result, may be null
+	 */
+	private void showLoginResult(String result) {
+		final int message;
+		if (LoginClassifier.Result.BAD_CREDENTIALS.name().equals(result)) {
+			message = R.string.bad_credentials;
+		} else if (LoginClassifier.Result.QUOTA_EXHAUSTED.name().equals(result)) {
+			message = R.string.quota_exhausted;
+		} else {
+			return;
+		}
+		runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				Toast.makeText(CredentialActivity.this, message, Toast.LENGTH_LONG)
+						.show();
+			}
+		});
+	}
+
     private void closeProgressDialog() {
     	if (mProgressDialog != null && mProgressDialog.isShowing()) {
     		mProgressDialog.dismiss();
     	}
     }
 
-    private void checkIfLoggedInAndUpdate() {
-    	if (mBound && mLoginService != null) {
-    		(new Thread(new Runnable() {
-    			@Override
-    			public void run() {
-    				mLoggedIn = mLoginService.isLoggedIn();
-    				runOnUiThread(new Runnable() {
-    					@Override
-    					public void run() {
-    						updateLoggedInMode();
-    						if (!CredentialActivity.this.isFinishing()) {
-    							closeProgressDialog();
-    						}
-    					}
-    				});
-    			}
-    		})).start();
-    	}
-    }
+    private LoginStatus.Listener mStatusListener = new LoginStatus.Listener() {
+		@Override
+		public void onStatus(final LoginStatus.Snapshot status) {
+			runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					showStatus(status);
+				}
+			});
+		}
+	};
+
+	/**
+	 * Must be called on the UI thread
+	 */
+	private void showStatus(LoginStatus.Snapshot status) {
+		if (isFinishing()) return;
+		if (status.confidence == LoginStatus.Confidence.UNKNOWN) {
+			// nothing to show until the service has checked
+			if (mProgressDialog == null || !mProgressDialog.isShowing()) {
+				mProgressDialog = new ProgressDialog(this);
+				mProgressDialog.setTitle(R.string.status);
+				mProgressDialog.setMessage(getString(R.string.checking_status));
+				mProgressDialog.show();
+			}
+			return;
+		}
+		mLoggedIn = status.loggedIn;
+		updateLoggedInMode();
+		closeProgressDialog();
+		if (mCreated != 0) {
+			LoginMetrics.getInstance().record(LoginMetrics.UI_READY, SystemClock
+					.elapsedRealtime() - mCreated, true);
+			mCreated = 0;
+		}
+	}
 
 	private void showLogoutDialog() {
 		DialogInterface.OnClickListener oncl = new DialogInterface
@@ -336,23 +397,35 @@ public class CredentialActivity extends Activity implements OnClickListener {
 		String pwd = mPassword.getEditableText().toString();
 		String ssid = (String) mSsid.getSelectedItem();
 		boolean showNotif = mShowNotification.isChecked();
+		boolean lazy = mLazyKeepAlive.isChecked();
 		//mStaySignedInFor.getSelectedItem()
 
-		SettingsManager.putString(this, SettingsManager.USERNAME, un);
-		SettingsManager.putString(this, SettingsManager.PASSWORD, pwd);
-		SettingsManager.putString(this, SettingsManager.SSID, ssid);
-		SettingsManager.putBoolean(this, SettingsManager.SHOW_NOTIF, showNotif);
+		SettingsManager.edit(this)
+				.putString(SettingsManager.USERNAME, un)
+				.putString(SettingsManager.PASSWORD, pwd)
+				.putString(SettingsManager.SSID, ssid)
+				.putBoolean(SettingsManager.SHOW_NOTIF, showNotif)
+				.putBoolean(SettingsManager.KA_LAZY, lazy)
+				.apply();
+		if (!TextUtils.isEmpty(ssid)) {
+			// the credentials are for the selected network, others keep theirs,
+			// and so does the portal it was found on
+			ProfileManager manager = ProfileManager.getInstance();
+			ProfileManager.Profile saved = manager.get(this, ssid);
+			manager.put(this, saved == null ? new ProfileManager.Profile(ssid, un, pwd)
+					: saved.withCredentials(un, pwd));
+		}
 	}
 
 	private void initiateLogin() {
-		SettingsManager.putBoolean(this, SettingsManager.LOG_IN, true);
-		SettingsManager.putLong(this, SettingsManager.LOG_IN_TIME
-				, System.currentTimeMillis());
-
 		int selection = mStaySignedInFor.getSelectedItemPosition();
 		if (selection == mStaySignedInNumbers.length) selection = -1;
 		else selection = mStaySignedInNumbers[selection];
-		SettingsManager.putInt(this, SettingsManager.KEEP_ALIVE, selection);
+		SettingsManager.edit(this)
+				.putBoolean(SettingsManager.LOG_IN, true)
+				.putLong(SettingsManager.LOG_IN_TIME, System.currentTimeMillis())
+				.putInt(SettingsManager.KEEP_ALIVE, selection)
+				.apply();
 
 		// show login dialog
 		mProgressDialog = new ProgressDialog(this);
@@ -365,6 +438,56 @@ public class CredentialActivity extends Activity implements OnClickListener {
 		startService(intent);
 	}
 
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		getMenuInflater().inflate(R.menu.credential_screen, menu);
+		return true;
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		switch (item.getItemId()) {
+		case R.id.menu_metrics:
+			LoginMetrics metrics = LoginMetrics.getInstance();
+			showReportDialog(R.string.metrics, metrics.toString(), metrics.toJson()
+					.toString());
+			return true;
+		case R.id.menu_events:
+			String events = EventLog.getInstance(this).decode();
+			showReportDialog(R.string.events, events, events);
+			return true;
+		}
+		return super.onOptionsItemSelected(item);
+	}
+
+	/**
+	 * @param text what the dialog shows
+	 * @param export what is shared if the user asks for it
+	 */
+	private void showReportDialog(final int title, String text, final String export) {
+		DialogInterface.OnClickListener oncl = new DialogInterface
+				.OnClickListener() {
+			@Override
+			public void onClick(DialogInterface dialog, int which) {
+				if (which == DialogInterface.BUTTON_POSITIVE) {
+					Intent intent = new Intent(Intent.ACTION_SEND);
+					intent.setType("text/plain");
+					intent.putExtra(Intent.EXTRA_SUBJECT, getString(title));
+					intent.putExtra(Intent.EXTRA_TEXT, export);
+					startActivity(Intent.createChooser(intent, getString(R.string
+							.share)));
+				}
+				dialog.dismiss();
+			}
+		};
+
+		new AlertDialog.Builder(this).setTitle(title)
+				.setMessage(text)
+				.setPositiveButton(R.string.share, oncl)
+				.setNegativeButton(android.R.string.ok, oncl)
+				.show();
+	}
+
 	@Override
 	public void onClick(View v) {
 		switch(v.getId()) {
@@ -396,6 +519,7 @@ public class CredentialActivity extends Activity implements OnClickListener {
 					mLoggedIn = status;
 					mLoggedInElsewhere = intent.getBooleanExtra(LoginService
 								.EX_LOGGED_IN_ELSEWHERE, false);
+					showLoginResult(intent.getStringExtra(LoginService.EX_RESULT));
 				} else if (action.equals(LoginService.ACTION_LOGOUT)) {
 					mLoggedIn = !status;
 				} else if (action.equals(LoginService.ACTION_KEEP_ALIVE)) {
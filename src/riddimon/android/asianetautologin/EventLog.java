@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+
+/**
+ * Fixed size binary log of what the login flow did, kept in a memory mapped
+ * file so it survives the process. Recording an event writes a few numbers
+ * into the mapping and allocates nothing; the text form is only built when
+ * someone asks for it.
+ * <p>Layout : a 16 byte header (magic, record size, sequence of the next
+ * record) followed by {@link #CAPACITY} records of 32 bytes (sequence, wall
+ * clock time, event, status, duration, value), written round robin.</p>
+ * @author ridhishguhan
+ */
+public class EventLog {
+	private static final Logger logger = LoggerFactory.getLogger(EventLog.class);
+	private static final String FILE = "events.bin";
+	private static final int MAGIC = 0x41414c31;
+	private static final int HEADER_SIZE = 16;
+	private static final int RECORD_SIZE = 32;
+	static final int CAPACITY = 1024;
+
+	// event ids, append only as they are stored in the file
+	public static final short PROBE = 1;
+	public static final short DISCOVERY = 2;
+	public static final short LOGIN = 3;
+	public static final short KEEP_ALIVE = 4;
+	public static final short LOGOUT = 5;
+	public static final short SESSION_LOST = 6;
+	public static final short RETRY = 7;
+	public static final short RESUME = 8;
+	private static final String[] NAMES = {"?", "probe", "discovery", "login"
+			, "keep_alive", "logout", "session_lost", "retry", "resume"};
+
+	private static EventLog instance;
+
+	// null if the file could not be mapped, events are dropped then
+	private final MappedByteBuffer mBuffer;
+	private long mNext;
+
+	private EventLog(File file) {
+		MappedByteBuffer buffer = null;
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			long size = HEADER_SIZE + (long) CAPACITY * RECORD_SIZE;
+			raf.setLength(size);
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} catch (IOException e) {
+			logger.warn("Event log disabled : {}", e.toString());
+		} finally {
+			// the mapping stays valid after the file is closed
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {}
+			}
+		}
+		mBuffer = buffer;
+		if (mBuffer != null) {
+			if (mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != RECORD_SIZE) {
+				mBuffer.putInt(0, MAGIC);
+				mBuffer.putInt(4, RECORD_SIZE);
+				mBuffer.putLong(8, 0);
+			}
+			mNext = mBuffer.getLong(8);
+		}
+	}
+
+	public static synchronized EventLog getInstance(Context context) {
+		if (instance == null)
+			instance = new EventLog(new File(context.getFilesDir(), FILE));
+		return instance;
+	}
+
+	/**
+	 * @param event one of the event ids
+	 * @param status an HTTP status code or another small outcome code, the
+	 * LoginClassifier.Result ordinal for logins
+	 * @param duration the time the operation took, in ms
+	 * @param value anything else worth keeping, e.g. an interval
+	 */
+	public synchronized void log(short event, int status, long duration
+			, long value) {
+		if (mBuffer == null) return;
+		int offset = HEADER_SIZE + (int) (mNext % CAPACITY) * RECORD_SIZE;
+		mBuffer.putLong(offset, mNext);
+		mBuffer.putLong(offset + 8, System.currentTimeMillis());
+		mBuffer.putShort(offset + 16, event);
+		mBuffer.putShort(offset + 18, (short) status);
+		mBuffer.putInt(offset + 20, (int) Math.min(duration, Integer.MAX_VALUE));
+		mBuffer.putLong(offset + 24, value);
+		mBuffer.putLong(8, ++mNext);
+	}
+
+	public void log(short event, int status, long duration) {
+		log(event, status, duration, 0);
+	}
+
+	/**
+	 * @return the recorded events, oldest first, one per line
+	 */
+	public synchronized String decode() {
+		if (mBuffer == null) return "Event log unavailable";
+		SimpleDateFormat sdf = new SimpleDateFormat("MM-dd HH:mm:ss", Locale.US);
+		StringBuilder sb = new StringBuilder();
+		for (long seq = Math.max(0, mNext - CAPACITY); seq < mNext; seq++) {
+			int offset = HEADER_SIZE + (int) (seq % CAPACITY) * RECORD_SIZE;
+			if (mBuffer.getLong(offset) != seq) continue;
+			short event = mBuffer.getShort(offset + 16);
+			long value = mBuffer.getLong(offset + 24);
+			sb.append(sdf.format(new Date(mBuffer.getLong(offset + 8))))
+					.append(' ').append(event > 0 && event < NAMES.length
+							? NAMES[event] : NAMES[0])
+					.append(" status=").append(mBuffer.getShort(offset + 18))
+					.append(" took=").append(mBuffer.getInt(offset + 20)).append("ms");
+			if (value != 0) sb.append(" value=").append(value);
+			sb.append('\n');
+		}
+		return sb.length() == 0 ? "No events yet" : sb.toString();
+	}
+}
@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.apache.http.HttpRequest;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+
+/**
+ * Remembers the login form found on each portal page, so an unchanged page
+ * is never scanned or parsed again. The page is fetched with the validators
+ * it was last served with, and if the server sends it anyway, the bytes the
+ * form was found in are checksummed as they stream in and compared with
+ * the fingerprint taken last time.
+ * @author ridhishguhan
+ */
+public class FormCache {
+	private static final Logger logger = LoggerFactory.getLogger(FormCache.class);
+
+	public enum Lookup {
+		NOT_MODIFIED, FINGERPRINT, MISS
+	}
+
+	/**
+	 * A form, and what is needed to tell whether its page has changed
+	 */
+	static class Entry {
+		final String etag;
+		final String lastModified;
+		// the form was found in this many bytes, which had this checksum
+		final long length;
+		final long crc;
+		final FormScanner.Form form;
+
+		Entry(String etag, String lastModified, long length, long crc
+				, FormScanner.Form form) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.crc = crc;
+			this.form = form;
+		}
+
+		String toJson() throws JSONException {
+			JSONArray inputs = new JSONArray();
+			for (String input : form.inputs) inputs.put(input);
+			return new JSONObject().putOpt("etag", etag)
+					.putOpt("modified", lastModified)
+					.put("length", length)
+					.put("crc", crc)
+					.put("action", form.action)
+					.put("inputs", inputs).toString();
+		}
+
+		static Entry fromJson(String json) throws JSONException {
+			JSONObject o = new JSONObject(json);
+			JSONArray array = o.getJSONArray("inputs");
+			List<String> inputs = new ArrayList<String>(array.length());
+			for (int i = 0; i < array.length(); i++) inputs.add(array.getString(i));
+			return new Entry(o.optString("etag", null), o.optString("modified", null)
+					, o.getLong("length"), o.getLong("crc")
+					, new FormScanner.Form(o.getString("action"), inputs));
+		}
+	}
+
+	private static FormCache instance;
+
+	private int mNotModified = 0;
+	private int mFingerprints = 0;
+	private int mMisses = 0;
+
+	private FormCache() {
+	}
+
+	public static synchronized FormCache getInstance() {
+		if (instance == null)
+			instance = new FormCache();
+		return instance;
+	}
+
+	/**
+	 * @param url the portal page
+	 * @return what was found on the page last time, or null
+	 */
+	Entry get(Context context, String url) {
+		String json = SettingsManager.getString(context, prefKey(url), null);
+		if (json == null) return null;
+		try {
+			return Entry.fromJson(json);
+		} catch (JSONException e) {
+			logger.warn("Dropping unreadable form cache entry for {}", url);
+			return null;
+		}
+	}
+
+	/**
+	 * Makes the request conditional on the page having changed
+	 */
+	static void addValidators(HttpRequest req, Entry entry) {
+		if (entry == null) return;
+		if (entry.etag != null) req.addHeader("If-None-Match", entry.etag);
+		if (entry.lastModified != null) {
+			req.addHeader("If-Modified-Since", entry.lastModified);
+		}
+	}
+
+	/**
+	 * The server said the page hasn't changed
+	 */
+	FormScanner.Form notModified(Entry entry) {
+		count(Lookup.NOT_MODIFIED);
+		return entry.form;
+	}
+
+	/**
+	 * Finds the form on a page, without scanning it if its fingerprint
+	 * matches the cached entry. The stream is not closed.
+	 * @param head the status and headers the page was served with
+	 * @param entry the cached entry for the page, or null
+	 * @return the form, or null if the scanner found none
+	 * @throws IOException
+	 */
+	FormScanner.Form scan(Context context, String url, HttpResult head
+			, InputStream body, Entry entry, FormScanner scanner) throws IOException {
+		CRC32 crc = new CRC32();
+		InputStream in = body;
+		if (entry != null && entry.length > 0 && entry.length <= Integer.MAX_VALUE) {
+			byte[] prefix = new byte[(int) entry.length];
+			int read = 0;
+			int n;
+			while (read < prefix.length
+					&& (n = body.read(prefix, read, prefix.length - read)) != -1) {
+				read += n;
+			}
+			crc.update(prefix, 0, read);
+			if (read == prefix.length && crc.getValue() == entry.crc) {
+				count(Lookup.FINGERPRINT);
+				if (!equals(entry.etag, head.getFirstHeader("ETag"))
+						|| !equals(entry.lastModified, head.getFirstHeader("Last-Modified"))) {
+					// same form, new validators
+					put(context, url, head, entry.length, entry.crc, entry.form);
+				}
+				return entry.form;
+			}
+			// the page changed, scan what was read and then the rest
+			crc.reset();
+			in = new SequenceInputStream(new ByteArrayInputStream(prefix, 0, read), body);
+		}
+		count(Lookup.MISS);
+		FormScanner.Form form = scanner.scan(new CheckedInputStream(in, crc));
+		if (form != null) {
+			put(context, url, head, scanner.getBytesRead(), crc.getValue(), form);
+		}
+		return form;
+	}
+
+	/**
+	 * Caches a form which had to be found by parsing the whole page
+	 */
+	void putParsed(Context context, String url, HttpResult page
+			, FormScanner.Form form) {
+		CRC32 crc = new CRC32();
+		crc.update(page.getBody());
+		put(context, url, page, page.getBody().length, crc.getValue(), form);
+	}
+
+	private void put(Context context, String url, HttpResult head, long length
+			, long crc, FormScanner.Form form) {
+		try {
+			SettingsManager.putString(context, prefKey(url), new Entry(head
+					.getFirstHeader("ETag"), head.getFirstHeader("Last-Modified")
+					, length, crc, form).toJson());
+		} catch (JSONException e) {
+			// only thrown for non finite numbers
+		}
+	}
+
+	private synchronized void count(Lookup lookup) {
+		switch (lookup) {
+		case NOT_MODIFIED: mNotModified++; break;
+		case FINGERPRINT: mFingerprints++; break;
+		case MISS: mMisses++; break;
+		}
+		LoginMetrics.getInstance().increment("form_cache_" + lookup.name()
+				.toLowerCase(Locale.US));
+		logger.info("Form cache {}, {}", lookup, this);
+	}
+
+	public synchronized float getHitRate() {
+		int lookups = mNotModified + mFingerprints + mMisses;
+		return lookups == 0 ? 0 : (float) (mNotModified + mFingerprints) / lookups;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "FormCache[notModified=" + mNotModified + ", fingerprint="
+				+ mFingerprints + ", misses=" + mMisses + ", hitRate=" + getHitRate()
+				+ "]";
+	}
+
+	private static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static String prefKey(String url) {
+		return SettingsManager.FORM_PREFIX + url;
+	}
+}
@@ -0,0 +1,279 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+/**
+ * Incremental tokenizer which pulls the first form whose action matches a
+ * rule out of an HTML stream. Reading stops as soon as that form is closed,
+ * so the rest of the page never has to be downloaded or parsed.
+ * @author ridhishguhan
+ */
+public class FormScanner {
+	private static final int BUF_SIZE = 4 * 1024;
+	private static final int MAX_TAG_LENGTH = 8 * 1024;
+	// the portal's form posts to an absolute url
+	private static final String URL_REGEX = "^(https?|ftp|file)://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|]";
+	public static final Pattern ABSOLUTE_URL = Pattern.compile(URL_REGEX);
+
+	/**
+	 * The action of a login form and the names of its input fields
+	 */
+	public static class Form {
+		public final String action;
+		public final List<String> inputs;
+
+		public Form(String action, List<String> inputs) {
+			this.action = action;
+			this.inputs = Collections.unmodifiableList(inputs);
+		}
+
+		@Override
+		public String toString() {
+			return action + " " + inputs;
+		}
+	}
+
+	private final Pattern mActionRule;
+	private final byte[] mBuffer = new byte[BUF_SIZE];
+	private final StringBuilder mTag = new StringBuilder(256);
+
+	// tokenizer state
+	private boolean mInTag;
+	private char mQuote;
+	private int mDashes;
+	private String mRawText;
+	private String mAction;
+	private List<String> mInputs;
+	private long mBytesRead;
+
+	public FormScanner(Pattern actionRule) {
+		mActionRule = actionRule;
+	}
+
+	/**
+	 * @return the number of bytes consumed by the last scan
+	 */
+	public long getBytesRead() {
+		return mBytesRead;
+	}
+
+	/**
+	 * Reads the stream until the first form with a matching action has been
+	 * closed. The stream is not closed.
+	 * @param in the page
+	 * @return the form, or null if the page has none that matches
+	 * @throws IOException
+	 */
+	public Form scan(InputStream in) throws IOException {
+		reset();
+		int read;
+		while ((read = in.read(mBuffer, 0, BUF_SIZE)) != -1) {
+			mBytesRead += read;
+			for (int i = 0; i < read; i++) {
+				// ISO-8859-1, markup and URLs are plain ASCII
+				if (accept((char) (mBuffer[i] & 0xff))) {
+					return new Form(mAction, mInputs);
+				}
+			}
+		}
+		// page ended without closing the form
+		return mAction == null ? null : new Form(mAction, mInputs);
+	}
+
+	/**
+	 * Finds the form by parsing the whole page, for markup the streaming
+	 * scan can't make sense of
+	 * @param html the page
+	 * @param baseUri the url the page was loaded from
+	 * @param actionRule the pattern the form action has to match
+	 * @return the form, or null if the page has none that matches
+	 */
+	public static Form parse(String html, String baseUri, Pattern actionRule) {
+		Document doc = Jsoup.parse(html, baseUri);
+		for (Element el : doc.getElementsByTag("form")) {
+			String action = el.attr("action");
+			if (actionRule.matcher(action).matches()) {
+				List<String> inputs = new ArrayList<String>();
+				for (Element input : el.select("[name]")) {
+					inputs.add(input.attr("name"));
+				}
+				return new Form(action, inputs);
+			}
+		}
+		return null;
+	}
+
+	private void reset() {
+		mTag.setLength(0);
+		mInTag = false;
+		mQuote = 0;
+		mDashes = 0;
+		mRawText = null;
+		mAction = null;
+		mInputs = null;
+		mBytesRead = 0;
+	}
+
+	/**
+	 * @return true once the matching form has been closed
+	 */
+	private boolean accept(char c) {
+		if (!mInTag) {
+			if (c == '<') {
+				mInTag = true;
+				mTag.setLength(0);
+			}
+			return false;
+		}
+		int dashes = mDashes;
+		mDashes = c == '-' ? mDashes + 1 : 0;
+		if (mQuote != 0) {
+			if (c == mQuote) mQuote = 0;
+		} else if (c == '"' || c == '\'') {
+			// quotes only matter inside the attributes of a real tag
+			if (mRawText == null && !isComment()) mQuote = c;
+		} else if (c == '>') {
+			if (isComment()) {
+				// only "-->" closes a comment
+				if (dashes >= 2 && mTag.length() > 4) mInTag = false;
+				else if (mTag.length() < MAX_TAG_LENGTH) mTag.append(c);
+				return false;
+			}
+			mInTag = false;
+			return endTag();
+		}
+		if (mTag.length() < MAX_TAG_LENGTH) mTag.append(c);
+		return false;
+	}
+
+	private boolean isComment() {
+		return mTag.length() >= 3 && mTag.charAt(0) == '!' && mTag.charAt(1) == '-'
+				&& mTag.charAt(2) == '-';
+	}
+
+	private boolean endTag() {
+		String name = tagName(mTag);
+		if (mRawText != null) {
+			// inside script / style, only its closing tag counts
+			if (name.equals("/" + mRawText)) mRawText = null;
+			return false;
+		}
+		if (name.equals("script") || name.equals("style")) {
+			mRawText = name;
+		} else if (name.equals("form")) {
+			if (mAction == null) {
+				String action = attribute(mTag, "action");
+				if (action != null && mActionRule.matcher(action).matches()) {
+					mAction = action;
+					mInputs = new ArrayList<String>();
+				}
+			}
+		} else if (mAction != null) {
+			if (name.equals("input") || name.equals("select")
+					|| name.equals("textarea") || name.equals("button")) {
+				String input = attribute(mTag, "name");
+				if (input != null) mInputs.add(input);
+			} else if (name.equals("/form")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String tagName(CharSequence tag) {
+		int len = tag.length();
+		int end = len > 0 && tag.charAt(0) == '/' ? 1 : 0;
+		while (end < len && !Character.isWhitespace(tag.charAt(end))
+				&& tag.charAt(end) != '/') {
+			end++;
+		}
+		return tag.subSequence(0, end).toString().toLowerCase();
+	}
+
+	/**
+	 * Finds the value of an attribute in the text of a tag
+	 * @return the value, or null if the attribute is missing
+	 */
+	static String attribute(CharSequence tag, String attr) {
+		int len = tag.length();
+		int i = 0;
+		// skip the tag name
+		while (i < len && !Character.isWhitespace(tag.charAt(i))) i++;
+		while (i < len) {
+			while (i < len && (Character.isWhitespace(tag.charAt(i))
+					|| tag.charAt(i) == '/')) i++;
+			int start = i;
+			while (i < len && tag.charAt(i) != '=' && tag.charAt(i) != '/'
+					&& !Character.isWhitespace(tag.charAt(i))) i++;
+			if (start == i) break;
+			boolean match = regionMatches(tag, start, i, attr);
+			while (i < len && Character.isWhitespace(tag.charAt(i))) i++;
+			if (i >= len || tag.charAt(i) != '=') {
+				// attribute without a value
+				if (match) return "";
+				continue;
+			}
+			i++;
+			while (i < len && Character.isWhitespace(tag.charAt(i))) i++;
+			int vstart, vend;
+			if (i < len && (tag.charAt(i) == '"' || tag.charAt(i) == '\'')) {
+				char q = tag.charAt(i++);
+				vstart = i;
+				while (i < len && tag.charAt(i) != q) i++;
+				vend = i++;
+			} else {
+				vstart = i;
+				while (i < len && !Character.isWhitespace(tag.charAt(i))) i++;
+				vend = i;
+			}
+			if (match) return unescape(tag.subSequence(vstart, vend).toString());
+		}
+		return null;
+	}
+
+	private static boolean regionMatches(CharSequence s, int start, int end
+			, String name) {
+		if (end - start != name.length()) return false;
+		for (int i = start; i < end; i++) {
+			if (Character.toLowerCase(s.charAt(i)) != name.charAt(i - start)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('&') == -1) return value.trim();
+		return value.replace("&amp;", "&").replace("&quot;", "\"")
+				.replace("&#39;", "'").replace("&lt;", "<").replace("&gt;", ">")
+				.trim();
+	}
+}
@@ -20,6 +20,10 @@
 package riddimon.android.asianetautologin;
 
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -29,10 +33,13 @@ import org.apache.http.HttpResponse;
 import org.apache.http.HttpVersion;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.params.HttpClientParams;
-import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
 import org.apache.http.conn.params.ConnManagerParams;
 import org.apache.http.conn.params.ConnPerRoute;
 import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
@@ -54,20 +61,69 @@ import riddimon.android.asianetautologin.HttpUtils.TrustAllManager;
  */
 public class HttpManager {
 	private DefaultHttpClient client;
-	private static HttpManager instance = null;
+	private CountingConnManager conMgr;
+	private static volatile HttpManager instance = null;
+
+	/**
+	 * Counts connections as the pool hands them out and gets them back, so
+	 * one that is never released shows up
+	 */
+	private static class CountingConnManager extends ThreadSafeClientConnManager {
+		private final AtomicInteger mLeased = new AtomicInteger();
+		private final AtomicInteger mReturned = new AtomicInteger();
+		// a connection can be released more than once, only the first counts
+		private final ConcurrentMap<ManagedClientConnection, Boolean> mOut
+				= new ConcurrentHashMap<ManagedClientConnection, Boolean>();
+
+		CountingConnManager(HttpParams params, SchemeRegistry schReg) {
+			super(params, schReg);
+		}
+
+		@Override
+		public ClientConnectionRequest requestConnection(HttpRoute route
+				, Object state) {
+			final ClientConnectionRequest request = super.requestConnection(route
+					, state);
+			return new ClientConnectionRequest() {
+				@Override
+				public ManagedClientConnection getConnection(long timeout
+						, TimeUnit tunit) throws InterruptedException
+						, ConnectionPoolTimeoutException {
+					ManagedClientConnection conn = request.getConnection(timeout, tunit);
+					mOut.put(conn, Boolean.TRUE);
+					mLeased.incrementAndGet();
+					return conn;
+				}
+
+				@Override
+				public void abortRequest() {
+					request.abortRequest();
+				}
+			};
+		}
+
+		@Override
+		public void releaseConnection(ManagedClientConnection conn
+				, long validDuration, TimeUnit timeUnit) {
+			if (mOut.remove(conn) != null) mReturned.incrementAndGet();
+			super.releaseConnection(conn, validDuration, timeUnit);
+		}
+	}
 
 	private HttpManager(Boolean debug, String version) {
 		// Set basic data
 		HttpParams params = new BasicHttpParams();
 		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
 		HttpProtocolParams.setContentCharset(params, "UTF-8");
-		HttpProtocolParams.setUseExpectContinue(params, true);
+		// the portal answers POSTs straight away, waiting for a 100-continue
+		// only costs a round trip
+		HttpProtocolParams.setUseExpectContinue(params, false);
 		HttpProtocolParams.setUserAgent(params, HttpUtils.userAgent);
 
-		// Make pool
-		ConnPerRoute connPerRoute = new ConnPerRouteBean(12);
+		// Make pool, we only talk to the portal and a few probe hosts
+		ConnPerRoute connPerRoute = new ConnPerRouteBean(2);
 		ConnManagerParams.setMaxConnectionsPerRoute(params, connPerRoute);
-		ConnManagerParams.setMaxTotalConnections(params, 20);
+		ConnManagerParams.setMaxTotalConnections(params, 6);
 
 		// Set timeout
 		HttpConnectionParams.setStaleCheckingEnabled(params, false);
@@ -102,13 +158,12 @@ public class HttpManager {
 					.getSocketFactory(), 443));
 
 		}
-		ClientConnectionManager conMgr = new ThreadSafeClientConnManager(
-				params, schReg);
+		conMgr = new CountingConnManager(params, schReg);
 		client = new DefaultHttpClient(conMgr, params);
 
 	}
 
-	private static HttpManager getInstance(Boolean debug, String version) {
+	private static synchronized HttpManager getInstance(Boolean debug, String version) {
 		if (instance == null)
 			instance = new HttpManager(debug, version);
 		return instance;
@@ -119,4 +174,40 @@ public class HttpManager {
 		return getInstance(debug == null ? Boolean.FALSE : debug, version).client
 				.execute(req);
 	}
+
+	/**
+	 * Closes pooled connections which have not been used for a while
+	 * @param idleMillis the idle time, 0 to close all idle connections
+	 */
+	public static void closeIdleConnections(long idleMillis) {
+		HttpManager manager = instance;
+		if (manager == null) return;
+		manager.client.getConnectionManager().closeIdleConnections(idleMillis
+				, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the number of connections held by the pool, leased or idle
+	 */
+	public static int getConnectionsInPool() {
+		HttpManager manager = instance;
+		if (manager == null) return 0;
+		return manager.conMgr.getConnectionsInPool();
+	}
+
+	/**
+	 * @return the number of connections the pool has handed out
+	 */
+	public static int getLeased() {
+		HttpManager manager = instance;
+		return manager == null ? 0 : manager.conMgr.mLeased.get();
+	}
+
+	/**
+	 * @return the number of connections handed back to the pool
+	 */
+	public static int getReturned() {
+		HttpManager manager = instance;
+		return manager == null ? 0 : manager.conMgr.mReturned.get();
+	}
 }
\ No newline at end of file
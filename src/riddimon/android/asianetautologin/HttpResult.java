@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.io.UnsupportedEncodingException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+
+/**
+ * Status, headers and (optionally) a bounded copy of the body of an HTTP
+ * response. The connection behind it has already been released by the time
+ * a caller sees one of these.
+ * @author ridhishguhan
+ */
+public class HttpResult {
+	private static final Header[] NO_HEADERS = new Header[0];
+
+	private final int status;
+	private final String statusLine;
+	private final Header[] headers;
+	private final byte[] body;
+	private final boolean truncated;
+
+	HttpResult(HttpResponse response) {
+		this(response.getStatusLine().getStatusCode(), response.getStatusLine()
+				.toString(), response.getAllHeaders(), null, false);
+	}
+
+	HttpResult(int status, String statusLine, Header[] headers, byte[] body
+			, boolean truncated) {
+		this.status = status;
+		this.statusLine = statusLine;
+		this.headers = headers == null ? NO_HEADERS : headers;
+		this.body = body;
+		this.truncated = truncated;
+	}
+
+	HttpResult withBody(byte[] body, boolean truncated) {
+		return new HttpResult(status, statusLine, headers, body, truncated);
+	}
+
+	public int getStatusCode() {
+		return status;
+	}
+
+	public Header[] getAllHeaders() {
+		return headers;
+	}
+
+	/**
+	 * @param name the header name, case insensitive
+	 * @return the value of the first header with this name, or null
+	 */
+	public String getFirstHeader(String name) {
+		for (Header header : headers) {
+			if (header.getName().equalsIgnoreCase(name)) return header.getValue();
+		}
+		return null;
+	}
+
+	/**
+	 * @return the body, or null if it was not read
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * @return true if the body was longer than the limit it was read with
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public String getBodyAsString() {
+		if (body == null) return null;
+		try {
+			return new String(body, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return new String(body);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return statusLine + (body == null ? "" : " (" + body.length + " bytes"
+				+ (truncated ? ", truncated)" : ")"));
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Sends requests for {@link HttpUtils}. Requests are described with the
+ * Apache request classes whichever implementation sends them, so callers
+ * can keep aborting them from another thread.
+ * @author ridhishguhan
+ */
+public interface HttpTransport {
+	/**
+	 * A response whose connection is still held
+	 */
+	interface Exchange {
+		HttpResult getHead();
+
+		/**
+		 * @return the body, or null if the response has none
+		 */
+		InputStream getBody() throws IOException;
+
+		/**
+		 * Drops the connection instead of returning it to the pool
+		 */
+		void abort();
+	}
+
+	/**
+	 * Sends the request and reads the response head. The caller reads the
+	 * body and then either closes it, which returns the connection to the
+	 * pool, or aborts the exchange.
+	 */
+	Exchange execute(HttpUriRequest req) throws IOException;
+
+	/**
+	 * Closes pooled connections which have not been used for a while,
+	 * where the implementation allows it
+	 * @param idleMillis the idle time, 0 to close all idle connections
+	 */
+	void closeIdleConnections(long idleMillis);
+
+	/**
+	 * @return the number of connections taken to send a request
+	 */
+	int getLeased();
+
+	/**
+	 * @return the number of connections handed back or dropped, short of
+	 * {@link #getLeased()} by the responses being read and those leaked
+	 */
+	int getReturned();
+
+	/**
+	 * @return a one line description of the pool, for the logs
+	 */
+	String getPoolStats();
+}
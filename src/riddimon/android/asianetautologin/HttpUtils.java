@@ -19,10 +19,12 @@
 
 package riddimon.android.asianetautologin;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.NoRouteToHostException;
 import java.net.URLEncoder;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
@@ -30,6 +32,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -38,28 +41,28 @@ import javax.net.ssl.SSLSession;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
-import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.protocol.HTTP;
-import org.apache.http.util.ByteArrayBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.content.Context;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
+import android.os.Build;
 import android.telephony.TelephonyManager;
-import android.text.TextUtils;
 
 /**
  * Utility class for HTTP calls
@@ -71,15 +74,32 @@ public class HttpUtils {
 			+" AppleWebKit/537.36 (KHTML, like Gecko) Chrome/28.0.1468.0"
 			+ " Safari/537.36";
 	public enum HttpMethod {
-		GET, POST, PUT, DELETE, INVALID
+		GET, HEAD, POST, PUT, DELETE, INVALID
 	}
 	private static final Logger logger = LoggerFactory
 			.getLogger(HttpUtils.class);
+	private static final int BUF_SIZE = 8 * 1024;
+	// leftovers up to this size are read so the connection can be reused
+	private static final long DRAIN_LIMIT = 16 * 1024;
+
+	// one read buffer per thread, shared by every response read on it
+	private static final ThreadLocal<byte[]> sBuffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUF_SIZE];
+		}
+	};
+	// why the last request on this thread failed, see getLastError()
+	private static final ThreadLocal<IOException> sLastError = new ThreadLocal<IOException>();
+	// the request each thread is waiting on, see abort(Thread)
+	private static final Map<Thread, HttpUriRequest> sInFlight
+			= new ConcurrentHashMap<Thread, HttpUriRequest>();
 
 	private Boolean debug = Boolean.FALSE;
 	private String version = "";
 	private Context context;
-	private static HttpUtils instance;
+	private volatile HttpTransport transport;
+	private static volatile HttpUtils instance;
 
 	private HttpUtils(Context context) {
 		// private constructor to prevent instantiation
@@ -107,14 +127,27 @@ public class HttpUtils {
 		// We don't enable response cache because this scenario requires fresh
 		// data every time
 		//enableHttpResponseCache();
+		// HttpURLConnection is reliable from Gingerbread on
+		transport = Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD
+				? new UrlConnectionTransport(userAgent)
+				: new ApacheTransport(debug, version);
 	}
 
-	private static HttpUtils getInstance(Context context) {
+	private static synchronized HttpUtils getInstance(Context context) {
 		if (instance == null)
 			instance = new HttpUtils(context);
 		return instance;
 	}
 
+	/**
+	 * Replaces the transport picked for the platform, so the benchmarks and
+	 * tests can compare the two. Requests in flight finish on the old one.
+	 */
+	public static synchronized void setTransport(Context context
+			, HttpTransport transport) {
+		getInstance(context).transport = transport;
+	}
+
 	/**
 	 * Used to refer to connection status while executing HTTP transactions
 	 */
@@ -151,10 +184,9 @@ public class HttpUtils {
 		ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
 
 		// test for connection
-		if (cm.getActiveNetworkInfo() != null
-				&& cm.getActiveNetworkInfo().isAvailable()
-				&& cm.getActiveNetworkInfo().isConnected()) {
-			logger.info("Connection available : <", cm.getActiveNetworkInfo().toString() + ">");
+		NetworkInfo info = cm.getActiveNetworkInfo();
+		if (info != null && info.isAvailable() && info.isConnected()) {
+			logger.debug("Connection available : <{}>", info);
 			return true;
 		} else {
 			// no connection
@@ -163,14 +195,16 @@ public class HttpUtils {
 		}
 	}
 
-	private static String getEncodedParameters(Map<String, String> params) {
-		StringBuilder s = new StringBuilder();
+	// the helpers below don't touch android classes, so the benchmarks
+	// module drives them on a plain JVM
+	public static String getEncodedParameters(Map<String, String> params) {
+		StringBuilder s = new StringBuilder(params.size() * 32);
 		synchronized(params) {
-			for (String key : params.keySet()) {
+			for (Entry<String, String> entry : params.entrySet()) {
 				if (s.length() != 0) {
 					s.append("&");
 				}
-				String value = params.get(key).toString();
+				String value = entry.getValue().toString();
 				String encodedValue = null;
 				try {
 					encodedValue = URLEncoder.encode(value, "utf8");
@@ -178,8 +212,8 @@ public class HttpUtils {
 					e.printStackTrace();
 					logger.warn("Could not encode URL");
 				}
-				if (!TextUtils.isEmpty(encodedValue)) {
-					s.append(key).append("=").append(encodedValue);
+				if (encodedValue != null && encodedValue.length() > 0) {
+					s.append(entry.getKey()).append("=").append(encodedValue);
 				}
 
 				//logger.trace("Encoding from: {}", value);
@@ -195,41 +229,263 @@ public class HttpUtils {
 	 * @param method the HttpMethod HttpMethod.GET / .POST/ .PUT / .DELETE
 	 * @param url the url without the parameters appended
 	 * @param paramz the parameters to be added to the GET/DELETE request
-	 * @return <b>response</b> the string response
+	 * @param maxBody the number of bytes of the body to keep, 0 to discard it
+	 * @return <b>result</b> the status, headers and body, or null if the request failed
 	 * TODO: throw appropriate exceptions to signal errors
 	 */
-	public static HttpResponse execute(Context context, HttpMethod method, String url
+	public static HttpResult execute(Context context, HttpMethod method, String url
+			, Map<String, String> paramz, List<BasicHeader> headers, int maxBody) {
+		HttpUriRequest req = buildRequest(method, url, paramz, headers);
+		return req == null ? null : execute(context, req, maxBody);
+	}
+
+	public static HttpResult execute(Context context, HttpMethod method, String url
 			, Map<String, String> paramz, List<BasicHeader> headers) {
-		HttpUtils instance = getInstance(context);
-		return instance.execute(method, url, paramz, headers);
+		return execute(context, method, url, paramz, headers, 0);
 	}
 
-	public static HttpResponse execute(Context context, HttpMethod method, String url
+	public static HttpResult execute(Context context, HttpMethod method, String url
 			, Map<String, String> paramz) {
-		HttpUtils instance = getInstance(context);
-		return instance.execute(method, url, paramz, null);
+		return execute(context, method, url, paramz, null, 0);
+	}
+
+	/**
+	 * Executes a request built by the caller, which can keep a handle to it
+	 * in order to abort it from another thread
+	 * @param context the activity or service context
+	 * @param req the request
+	 * @param maxBody the number of bytes of the body to keep, 0 to discard it
+	 * @return the result, or null if the request failed
+	 */
+	public static HttpResult execute(Context context, HttpUriRequest req
+			, final int maxBody) {
+		return execute(context, req, new BodyHandler<HttpResult>() {
+			@Override
+			public HttpResult handle(HttpResult head, InputStream body)
+					throws IOException {
+				if (body == null || maxBody <= 0) return head;
+				ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.min(
+						maxBody, BUF_SIZE));
+				byte[] buffer = sBuffer.get();
+				int read;
+				while (bos.size() < maxBody && (read = body.read(buffer, 0
+						, Math.min(buffer.length, maxBody - bos.size()))) != -1) {
+					bos.write(buffer, 0, read);
+				}
+				return head.withBody(bos.toByteArray(), bos.size() >= maxBody
+						&& body.read() != -1);
+			}
+		});
+	}
+
+	/**
+	 * Reads the body of a response. Whatever the handler leaves unread is
+	 * drained or the connection aborted, so the handler never has to release
+	 * the connection itself.
+	 */
+	public interface BodyHandler<T> {
+		/**
+		 * @param head the status and headers
+		 * @param body the body, or null if the response has none
+		 */
+		T handle(HttpResult head, InputStream body) throws IOException;
+	}
+
+	/**
+	 * Executes a request and hands the response to a handler, releasing the
+	 * connection afterwards no matter what the handler did
+	 * @param context the activity or service context
+	 * @param req the request
+	 * @param handler reads the response
+	 * @return the handler's result, or null if the request failed
+	 */
+	public static <T> T execute(Context context, HttpUriRequest req
+			, BodyHandler<T> handler) {
+		sLastError.set(null);
+		Thread thread = Thread.currentThread();
+		sInFlight.put(thread, req);
+		try {
+			return execute(context, req, handler, thread);
+		} finally {
+			sInFlight.remove(thread);
+		}
+	}
+
+	private static <T> T execute(Context context, HttpUriRequest req
+			, BodyHandler<T> handler, Thread thread) {
+		HttpTransport.Exchange exchange;
+		// interrupted before abort(Thread) could see the request
+		if (thread.isInterrupted()) req.abort();
+		try {
+			// portal traffic must not leak onto mobile data, it is tried
+			// again once the route is there
+			WifiBinder binder = WifiBinder.getInstance(context);
+			if (!binder.bind(req) && binder.canLeak()) {
+				throw new NoRouteToHostException("No route to " + req.getURI()
+						.getHost() + " over WiFi");
+			}
+			exchange = getInstance(context).transport.execute(req);
+		} catch (IOException e) {
+			sLastError.set(e);
+			logger.info("HTTP {} {} failed : {}", new Object[] {req.getMethod()
+					, req.getURI(), e.toString()});
+			return null;
+		}
+		EofInputStream in = null;
+		try {
+			InputStream body = exchange.getBody();
+			if (body != null) in = new EofInputStream(body);
+			return handler.handle(exchange.getHead(), in);
+		} catch (IOException e) {
+			sLastError.set(e);
+			logger.info("HTTP {} {} failed : {}", new Object[] {req.getMethod()
+					, req.getURI(), e.toString()});
+			return null;
+		} finally {
+			release(exchange, in);
+		}
 	}
 
-	private HttpResponse execute(HttpMethod method, String url, Map<String, String> paramz
-			, List<BasicHeader> headers ) {
+	/**
+	 * Returns the connection to the pool if what's left of the body is short
+	 * enough to drain, otherwise closes it
+	 */
+	private static void release(HttpTransport.Exchange exchange, EofInputStream in) {
+		// without a body the transport has released the connection already
+		if (in == null) return;
+		try {
+			byte[] buffer = sBuffer.get();
+			long left = DRAIN_LIMIT;
+			while (!in.eof && left > 0) {
+				int read = in.read(buffer, 0, buffer.length);
+				if (read > 0) left -= read;
+			}
+			if (in.eof) {
+				// closing a fully read stream hands the connection back
+				in.close();
+				return;
+			}
+		} catch (IOException e) {
+			logger.debug("Could not drain response : {}", e.toString());
+		}
+		exchange.abort();
+	}
+
+	/**
+	 * Aborts the request a thread is waiting on, so it fails right away
+	 * instead of running into the timeout. Interrupting the thread alone
+	 * doesn't unblock a socket read. Doesn't block.
+	 * @param thread the thread executing the request
+	 */
+	public static void abort(Thread thread) {
+		HttpUriRequest req = sInFlight.get(thread);
+		if (req != null && !req.isAborted()) {
+			logger.info("Aborting HTTP {} {}", req.getMethod(), req.getURI());
+			req.abort();
+		}
+	}
+
+	/**
+	 * @return the error the last request made on the calling thread failed
+	 * with, null if it got a response
+	 */
+	public static IOException getLastError() {
+		return sLastError.get();
+	}
+
+	/**
+	 * @return the number of connections the transport has taken so far
+	 */
+	public static int getLeasedConnections() {
+		HttpUtils utils = instance;
+		return utils == null ? 0 : utils.transport.getLeased();
+	}
+
+	/**
+	 * @return the number of connections the transport got back or dropped
+	 */
+	public static int getReturnedConnections() {
+		HttpUtils utils = instance;
+		return utils == null ? 0 : utils.transport.getReturned();
+	}
+
+	/**
+	 * @return connections in use right now, or leaked
+	 */
+	public static int getOutstandingConnections() {
+		return getLeasedConnections() - getReturnedConnections();
+	}
+
+	/**
+	 * @return a one line summary of connection usage, for the logs
+	 */
+	public static String getConnectionStats() {
+		HttpUtils utils = instance;
+		return utils == null ? "no requests" : "leased=" + utils.transport.getLeased()
+				+ ", returned=" + utils.transport.getReturned() + ", "
+				+ utils.transport.getPoolStats();
+	}
+
+	/**
+	 * Closes pooled connections which have not been used for a while,
+	 * e.g. because they belong to a network we have left
+	 * @param idleMillis the idle time, 0 to close all idle connections
+	 */
+	public static void closeIdleConnections(Context context, long idleMillis) {
+		getInstance(context).transport.closeIdleConnections(idleMillis);
+	}
+
+	/**
+	 * Remembers whether the end of the wrapped stream has been reached
+	 */
+	private static class EofInputStream extends FilterInputStream {
+		boolean eof = false;
+
+		EofInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1) eof = true;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException {
+			int read = super.read(buffer, offset, count);
+			if (read == -1) eof = true;
+			return read;
+		}
+	}
+
+	public static HttpUriRequest buildRequest(HttpMethod method, String url
+			, Map<String, String> paramz, List<BasicHeader> headers ) {
 		if (!(method.equals(HttpMethod.GET) || method.equals(HttpMethod.DELETE)
-				|| method.equals(HttpMethod.PUT) || method.equals(HttpMethod.POST)) || TextUtils.isEmpty(url)) {
+				|| method.equals(HttpMethod.HEAD)
+				|| method.equals(HttpMethod.PUT) || method.equals(HttpMethod.POST))
+				|| url == null || url.length() == 0) {
 			logger.error("Invalid request : {} | {}", method.name(), url);
 			return null;
 		}
 		logger.debug("HTTP {} : {}", method.name(), url);
-		String query = paramz == null ? null : getEncodedParameters(paramz);
-		logger.trace("Query String : {}", query);
-		HttpResponse httpResponse = null;
+		HttpUriRequest req = null;
 		try {
-				HttpUriRequest req = null;
 				switch (method) {
 				case GET:
+				case HEAD:
 				case DELETE:
-					url = paramz != null && paramz.size() > 0 ? url + "?"
-							+ query : url;
+					// only these carry the parameters in the url
+					if (paramz != null && paramz.size() > 0) {
+						String query = getEncodedParameters(paramz);
+						logger.trace("Query String : {}", query);
+						url = url + "?" + query;
+					}
 					if (method.equals(HttpMethod.GET)) {
 						req = new HttpGet(url);
+					} else if (method.equals(HttpMethod.HEAD)) {
+						req = new HttpHead(url);
 					} else if (method.equals(HttpMethod.DELETE)){
 						req = new HttpDelete(url);
 					}
@@ -270,41 +526,35 @@ public class HttpUtils {
 						}
 					}
 				}
-				httpResponse = HttpManager.execute(req, debug, version);
-		} catch (IOException e1) {
+		} catch (UnsupportedEncodingException e1) {
 			e1.printStackTrace();
 			logger.error("HTTP request failed : {}", e1);
 		}
-		return httpResponse;
+		return req;
 	}
 
 	public static String readStreamIntoString(InputStream in) {
-		StringBuilder builder = new StringBuilder();
-		int buf_size = 50 * 1024; // read in chunks of 50 KB
-		ByteArrayBuffer bab = new ByteArrayBuffer(buf_size);
+		String result = "";
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(BUF_SIZE);
+		byte[] buffer = sBuffer.get();
 		int read = 0;
-		BufferedInputStream bis = new BufferedInputStream(in);
-		if (bis != null) {
-			byte buffer[] = new byte[buf_size];
+		try {
+			while ((read = in.read(buffer, 0, buffer.length)) != -1) {
+				bos.write(buffer, 0, read);
+			}
+			result = bos.toString("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
 			try {
-				while ((read = bis.read(buffer, 0, buf_size)) != -1) {
-					//builder.append(new String(buffer, "utf-8"));
-					bab.append(buffer, 0, read);
-				}
-				builder.append(new String(bab.toByteArray(), "UTF-8"));
-			} catch (UnsupportedEncodingException e) {
-				e.printStackTrace();
+				in.close();
 			} catch (IOException e) {
 				e.printStackTrace();
-			} finally {
-				try {
-					bis.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
 			}
 		}
-		return builder.toString();
+		return result;
 	}
 
 	/**
@@ -0,0 +1,344 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.net.TrafficStats;
+import android.text.format.DateUtils;
+
+/**
+ * Works out how often the portal needs to hear from us. The scheduler
+ * remembers the longest gap a session has survived and the gap after which
+ * it was found dead, keeps the keep alive interval safely below the latter
+ * and slowly widens it while no drop has been seen. Keep alives are
+ * skipped while WiFi carries enough traffic to keep the session in use.
+ * <p>What one alarm changes is written with a single write when the
+ * cycle ends, see {@link #flush(Context)}.</p>
+ * @author ridhishguhan
+ */
+public class KeepAliveScheduler {
+	private static final Logger logger = LoggerFactory.getLogger(KeepAliveScheduler.class);
+
+	// the fixed policy this replaces
+	static final long DEFAULT_INTERVAL = 5 * DateUtils.MINUTE_IN_MILLIS;
+	private static final long MIN_INTERVAL = DateUtils.MINUTE_IN_MILLIS;
+	private static final long MAX_INTERVAL = 30 * DateUtils.MINUTE_IN_MILLIS;
+	// fraction of the observed idle timeout we are willing to wait
+	private static final float SAFETY = 0.6f;
+	// successful keep alives at one interval before trying a longer one
+	private static final int WIDEN_AFTER = 3;
+	private static final float WIDEN_BY = 1.5f;
+	// inexact alarms may fire up to one interval late
+	private static final long INEXACT_INTERVAL = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
+	// WiFi bytes between two alarms that show the session is in use, well
+	// above what background sync moves
+	private static final long ACTIVE_BYTES = 32 * 1024;
+
+	private static KeepAliveScheduler instance;
+
+	private int mStreak = 0;
+	// changes not written yet, which reads see before the preferences
+	private final Map<String, Object> mPending = new HashMap<String, Object>();
+	// true from a keep alive wake up until flush()
+	private boolean mInCycle = false;
+
+	private KeepAliveScheduler() {
+	}
+
+	public static synchronized KeepAliveScheduler getInstance() {
+		if (instance == null)
+			instance = new KeepAliveScheduler();
+		return instance;
+	}
+
+	public synchronized long getInterval(Context context) {
+		return getLong(context, SettingsManager.KA_INTERVAL, DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * @return the shortest gap after which a session was found dead, 0 if
+	 * no drop has been seen yet
+	 */
+	public synchronized long getIdleTimeout(Context context) {
+		return getLong(context, SettingsManager.KA_IDLE_TIMEOUT, 0);
+	}
+
+	/**
+	 * The portal accepted a login or keep alive
+	 * @param renewed true for a keep alive, which proves that the session
+	 * survived since the last contact, false for a fresh login
+	 */
+	public synchronized void onContact(Context context, boolean renewed) {
+		long now = System.currentTimeMillis();
+		long last = getLong(context, SettingsManager.KA_LAST_CONTACT, 0);
+		mPending.put(SettingsManager.KA_LAST_CONTACT, now);
+		// traffic is counted from the login on
+		if (!renewed) mPending.put(SettingsManager.KA_TRAFFIC, getWifiBytes());
+		if (renewed && last > 0 && now >= last) adapt(context, now - last);
+		save(context);
+	}
+
+	/**
+	 * Widens the interval after enough keep alives the session survived
+	 * @param gap how long the session went without hearing from us
+	 */
+	private void adapt(Context context, long gap) {
+		long timeout = getIdleTimeout(context);
+		long interval = getInterval(context);
+		if (timeout > 0 && gap > timeout) {
+			// survived longer than we thought possible, the portal has changed
+			logger.info("Session survived {} ms, forgetting timeout {} ms", gap, timeout);
+			timeout = 0;
+			mPending.put(SettingsManager.KA_IDLE_TIMEOUT, 0L);
+		}
+		if (++mStreak >= WIDEN_AFTER) {
+			mStreak = 0;
+			long wider = (long) (interval * WIDEN_BY);
+			if (timeout > 0) wider = Math.min(wider, (long) (timeout * SAFETY));
+			setInterval(context, wider);
+			publishStats(context);
+		}
+	}
+
+	/**
+	 * @return true if one more keep alive the session survived widens the
+	 * interval, which should then be based on more than the portal's word
+	 */
+	public synchronized boolean isAboutToWiden() {
+		return mStreak + 1 >= WIDEN_AFTER;
+	}
+
+	/**
+	 * The portal no longer knows about a session we thought was alive
+	 */
+	public synchronized void onSessionLost(Context context) {
+		long now = System.currentTimeMillis();
+		long last = getLong(context, SettingsManager.KA_LAST_CONTACT, 0);
+		mStreak = 0;
+		LoginMetrics.getInstance().increment(LoginMetrics.SESSIONS_LOST);
+		if (last == 0 || now < last) return;
+
+		long gap = now - last;
+		long timeout = getIdleTimeout(context);
+		timeout = timeout == 0 ? gap : Math.min(timeout, gap);
+		// the next login starts a new session
+		mPending.put(SettingsManager.KA_LAST_CONTACT, 0L);
+		mPending.put(SettingsManager.KA_IDLE_TIMEOUT, timeout);
+		mPending.put(SettingsManager.KA_DROPS, getInt(context, SettingsManager
+				.KA_DROPS, 0) + 1);
+		mPending.put(SettingsManager.KA_INTERVAL, clamp(Math.min(getInterval(context) / 2
+				, (long) (timeout * SAFETY))));
+		save(context);
+		publishStats(context);
+		logger.info("Session lost after {} ms, {}", gap, getStats(context));
+	}
+
+	/**
+	 * We logged out, there is no session to keep track of
+	 */
+	public synchronized void onLogout(Context context) {
+		mStreak = 0;
+		mPending.put(SettingsManager.KA_LAST_CONTACT, 0L);
+		save(context);
+	}
+
+	/**
+	 * Counts a wake up caused by the keep alive alarm, and starts the cycle
+	 * whose changes are kept until {@link #flush(Context)}
+	 */
+	public synchronized void onWakeup(Context context) {
+		mInCycle = true;
+		if (getLong(context, SettingsManager.KA_SINCE, 0) == 0) {
+			mPending.put(SettingsManager.KA_SINCE, System.currentTimeMillis());
+		}
+		mPending.put(SettingsManager.KA_WAKEUPS, getInt(context, SettingsManager
+				.KA_WAKEUPS, 0) + 1);
+		publishStats(context);
+	}
+
+	/**
+	 * Ends the keep alive cycle, writing what it changed at once
+	 */
+	public synchronized void flush(Context context) {
+		mInCycle = false;
+		save(context);
+	}
+
+	/**
+	 * Decides, when the keep alive alarm fires, whether the portal has to
+	 * hear from us. If WiFi moved enough bytes since the last alarm the
+	 * session is in use and the keep alive can wait, as long as the next
+	 * alarm still comes before the portal is expected to drop us.
+	 * @return true to send the keep alive
+	 */
+	public synchronized boolean shouldPing(Context context) {
+		long bytes = getWifiBytes();
+		long previous = getLong(context, SettingsManager.KA_TRAFFIC, -1);
+		mPending.put(SettingsManager.KA_TRAFFIC, bytes);
+		save(context);
+
+		boolean ping = true;
+		long last = getLong(context, SettingsManager.KA_LAST_CONTACT, 0);
+		// counters are reset on reboot and when the interface goes down
+		if (SettingsManager.getConfig(context).lazyKeepAlive && last > 0
+				&& previous >= 0 && bytes - previous >= ACTIVE_BYTES) {
+			long interval = getInterval(context);
+			long timeout = getIdleTimeout(context);
+			// without a known timeout, stay within the longest interval we use
+			long deadline = timeout > 0 ? (long) (timeout * SAFETY) : MAX_INTERVAL;
+			long nextAlarm = isInexact(interval, timeout) ? 2 * INEXACT_INTERVAL
+					: interval;
+			ping = System.currentTimeMillis() - last + nextAlarm > deadline;
+		}
+		LoginMetrics.getInstance().increment(ping ? LoginMetrics.KA_SENT
+				: LoginMetrics.KA_SKIPPED);
+		if (!ping) logger.info("Skipping keep alive, {} bytes since the last alarm"
+				, bytes - previous);
+		return ping;
+	}
+
+	/**
+	 * @return bytes received and sent by every interface but the mobile
+	 * ones since boot, -1 if the device doesn't count them
+	 */
+	private static long getWifiBytes() {
+		long total = TrafficStats.getTotalRxBytes();
+		long mobile = TrafficStats.getMobileRxBytes();
+		long totalTx = TrafficStats.getTotalTxBytes();
+		long mobileTx = TrafficStats.getMobileTxBytes();
+		if (total == TrafficStats.UNSUPPORTED || totalTx == TrafficStats.UNSUPPORTED) {
+			return -1;
+		}
+		// no mobile interface, or it isn't counted
+		if (mobile == TrafficStats.UNSUPPORTED) mobile = 0;
+		if (mobileTx == TrafficStats.UNSUPPORTED) mobileTx = 0;
+		return total - mobile + totalTx - mobileTx;
+	}
+
+	/**
+	 * Schedules the repeating keep alive alarm at the current interval. If
+	 * the known idle timeout leaves room for an alarm firing one interval
+	 * late, an inexact alarm is used so the system can batch wake ups.
+	 */
+	public synchronized void arm(Context context, AlarmManager am, PendingIntent pi) {
+		long interval = getInterval(context);
+		long timeout = getIdleTimeout(context);
+		long now = System.currentTimeMillis();
+		if (isInexact(interval, timeout)) {
+			am.setInexactRepeating(AlarmManager.RTC_WAKEUP, now + INEXACT_INTERVAL
+					, INEXACT_INTERVAL, pi);
+		} else {
+			am.setRepeating(AlarmManager.RTC_WAKEUP, now + interval, interval, pi);
+		}
+		publishStats(context);
+		logger.info("Keep alive armed : {}", getStats(context));
+	}
+
+	private static boolean isInexact(long interval, long timeout) {
+		return interval >= INEXACT_INTERVAL && timeout > 2 * INEXACT_INTERVAL;
+	}
+
+	private void setInterval(Context context, long interval) {
+		mPending.put(SettingsManager.KA_INTERVAL, clamp(interval));
+	}
+
+	/**
+	 * Writes the pending changes with a single write, unless a keep alive
+	 * cycle is under way
+	 */
+	private void save(Context context) {
+		if (mInCycle || mPending.isEmpty()) return;
+		SettingsManager.Batch batch = SettingsManager.edit(context);
+		for (Entry<String, Object> change : mPending.entrySet()) {
+			if (change.getValue() instanceof Integer) {
+				batch.putInt(change.getKey(), (Integer) change.getValue());
+			} else {
+				batch.putLong(change.getKey(), (Long) change.getValue());
+			}
+		}
+		batch.apply();
+		mPending.clear();
+	}
+
+	private long getLong(Context context, String name, long def) {
+		Object value = mPending.get(name);
+		return value != null ? (Long) value : SettingsManager.getLong(context, name, def);
+	}
+
+	private int getInt(Context context, String name, int def) {
+		Object value = mPending.get(name);
+		return value != null ? (Integer) value : SettingsManager.getInt(context, name, def);
+	}
+
+	private static long clamp(long interval) {
+		return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+	}
+
+	/**
+	 * @return whole days since the first wake up was counted, 0 if none
+	 */
+	private long getDays(Context context) {
+		long since = getLong(context, SettingsManager.KA_SINCE, 0);
+		return since == 0 ? 0 : (System.currentTimeMillis() - since)
+				/ DateUtils.DAY_IN_MILLIS;
+	}
+
+	/**
+	 * Puts the wake up counts of {@link #getStats(Context)} into
+	 * {@link LoginMetrics}
+	 */
+	private void publishStats(Context context) {
+		LoginMetrics metrics = LoginMetrics.getInstance();
+		int wakeups = getInt(context, SettingsManager.KA_WAKEUPS, 0);
+		long days = getDays(context);
+		metrics.set(LoginMetrics.KA_WAKEUPS, wakeups);
+		if (days > 0) metrics.set(LoginMetrics.KA_WAKEUPS_DAILY, wakeups / days);
+		metrics.set(LoginMetrics.KA_WAKEUPS_PROJECTED, DateUtils.DAY_IN_MILLIS
+				/ getInterval(context));
+		metrics.set(LoginMetrics.KA_WAKEUPS_FIXED, DateUtils.DAY_IN_MILLIS
+				/ DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * @return wake ups per day at the current interval, and at the fixed
+	 * interval this replaces
+	 */
+	public synchronized String getStats(Context context) {
+		long interval = getInterval(context);
+		int wakeups = getInt(context, SettingsManager.KA_WAKEUPS, 0);
+		long days = getDays(context);
+		return "interval=" + interval / DateUtils.SECOND_IN_MILLIS + "s"
+				+ ", timeout=" + getIdleTimeout(context) / DateUtils.SECOND_IN_MILLIS + "s"
+				+ ", drops=" + getInt(context, SettingsManager.KA_DROPS, 0)
+				+ ", wakeups=" + wakeups
+				+ (days > 0 ? " (" + wakeups / days + "/day)" : "")
+				+ ", projected=" + DateUtils.DAY_IN_MILLIS / interval + "/day"
+				+ ", fixed=" + DateUtils.DAY_IN_MILLIS / DEFAULT_INTERVAL + "/day";
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Works out from the page the portal answers a login with whether it
+ * worked. The portal answers 200 to wrong passwords, used up quotas and
+ * second logins as well, so the page is scanned for known messages, and
+ * reading stops at the first one that settles it. Only a success or a
+ * plain refusal settles it, anything else is kept in case one follows.
+ * @author ridhishguhan
+ */
+public class LoginClassifier {
+	private static final int BUF_SIZE = 4 * 1024;
+
+	public enum Result {
+		SUCCESS(false),
+		/** wrong user name or password */
+		BAD_CREDENTIALS(true),
+		/** the account has run out of time or data */
+		QUOTA_EXHAUSTED(true),
+		/** the account is in use on another device */
+		ALREADY_LOGGED_IN(true),
+		/** the login form came back without saying why */
+		FORM_RETURNED(false),
+		/** nothing we know of on the page */
+		UNKNOWN(false);
+
+		/** trying again won't change the portal's mind */
+		public final boolean isFinal;
+
+		private Result(boolean isFinal) {
+			this.isFinal = isFinal;
+		}
+	}
+
+	private static class Marker {
+		final byte[] text;
+		final Result result;
+		// a weak marker only counts if nothing better turns up
+		final boolean decisive;
+
+		Marker(String text, Result result, boolean decisive) {
+			this.text = text.getBytes();
+			this.result = result;
+			this.decisive = decisive;
+		}
+	}
+
+	// lower case, the page is lower cased as it is read. Of the weak markers
+	// found, the one listed first wins.
+	private static final Marker[] MARKERS = {
+		// the pfSense logout window, only served once logged in
+		new Marker("logout_id", Result.SUCCESS, true),
+		new Marker("you are now logged in", Result.SUCCESS, true),
+		new Marker("invalid credentials", Result.BAD_CREDENTIALS, true),
+		new Marker("password incorrect", Result.BAD_CREDENTIALS, true),
+		new Marker("invalid username", Result.BAD_CREDENTIALS, true),
+		new Marker("invalid password", Result.BAD_CREDENTIALS, true),
+		new Marker("already logged in", Result.ALREADY_LOGGED_IN, true),
+		new Marker("already authenticated", Result.ALREADY_LOGGED_IN, true),
+		// a page which logs us in may still talk about the quota or the
+		// validity of the plan, so these give way to a success further on
+		new Marker("quota exceeded", Result.QUOTA_EXHAUSTED, false),
+		new Marker("quota exhausted", Result.QUOTA_EXHAUSTED, false),
+		new Marker("quota has been exhausted", Result.QUOTA_EXHAUSTED, false),
+		new Marker("exceeded your quota", Result.QUOTA_EXHAUSTED, false),
+		new Marker("account has expired", Result.QUOTA_EXHAUSTED, false),
+		new Marker("voucher has expired", Result.QUOTA_EXHAUSTED, false),
+		new Marker("validity has expired", Result.QUOTA_EXHAUSTED, false),
+		// the message usually follows the form, keep looking for it
+		new Marker("auth_pass", Result.FORM_RETURNED, false)
+	};
+	private static final int MAX_MARKER_LENGTH;
+	static {
+		int max = 0;
+		for (Marker marker : MARKERS) max = Math.max(max, marker.text.length);
+		MAX_MARKER_LENGTH = max;
+	}
+
+	// room for the tail of the previous read, so markers split across
+	// two reads are still found
+	private final byte[] mBuffer = new byte[MAX_MARKER_LENGTH + BUF_SIZE];
+	private long mBytesRead;
+
+	/**
+	 * @return the number of bytes consumed by the last classification
+	 */
+	public long getBytesRead() {
+		return mBytesRead;
+	}
+
+	/**
+	 * Reads the page until a decisive marker is found. The stream is not
+	 * closed.
+	 * @param in the page the portal answered the login with
+	 * @param limit bytes to read at most, 0 for no limit
+	 * @return what the page says, UNKNOWN if it says nothing we know of
+	 * @throws IOException
+	 */
+	public Result classify(InputStream in, long limit) throws IOException {
+		mBytesRead = 0;
+		int weak = MARKERS.length;
+		int carry = 0;
+		int read;
+		while ((limit <= 0 || mBytesRead < limit)
+				&& (read = in.read(mBuffer, carry, BUF_SIZE)) != -1) {
+			mBytesRead += read;
+			int end = carry + read;
+			for (int i = carry; i < end; i++) {
+				byte b = mBuffer[i];
+				if (b >= 'A' && b <= 'Z') mBuffer[i] = (byte) (b + ('a' - 'A'));
+			}
+			// matches ending in the carried over tail were seen last time
+			for (int i = Math.max(0, carry - MAX_MARKER_LENGTH + 1); i < end; i++) {
+				for (int m = 0; m < MARKERS.length; m++) {
+					Marker marker = MARKERS[m];
+					if (i + marker.text.length <= carry || !matches(marker.text, i, end)) {
+						continue;
+					}
+					if (marker.decisive) return marker.result;
+					weak = Math.min(weak, m);
+				}
+			}
+			carry = Math.min(end, MAX_MARKER_LENGTH - 1);
+			System.arraycopy(mBuffer, end - carry, mBuffer, 0, carry);
+		}
+		return weak == MARKERS.length ? Result.UNKNOWN : MARKERS[weak].result;
+	}
+
+	private boolean matches(byte[] text, int offset, int end) {
+		if (offset + text.length > end) return false;
+		for (int i = 0; i < text.length; i++) {
+			if (mBuffer[offset + i] != text[i]) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,262 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * In-memory timers and counters for the login flow. Recording never takes
+ * a lock, so it is cheap enough to do on every request. Values are kept
+ * since the process started.
+ * @author ridhishguhan
+ */
+public class LoginMetrics {
+	// upper bounds of the histogram buckets in ms, the last bucket is open
+	private static final long[] BUCKETS = {50, 100, 250, 500, 1000, 2500, 5000
+			, 10000, 20000};
+
+	public static final String RETRIES = "retries";
+	public static final String GAVE_UP = "gave_up";
+	// from the first failure of a run until it succeeded or gave up
+	public static final String RECOVERY = "recovery";
+	public static final String KA_SENT = "keep_alives_sent";
+	public static final String KA_SKIPPED = "keep_alives_skipped";
+	public static final String SESSIONS_LOST = "sessions_lost";
+	public static final String RESUMES = "session_resumes";
+	// reading the page a login was answered with
+	public static final String CLASSIFY = "classify";
+	// from sending credentials until a login was found to have failed
+	public static final String BAD_LOGIN = "bad_login";
+	// discovery, depending on whether the form came from FormCache
+	public static final String DISCOVERY_CACHED = "discovery_cached";
+	public static final String DISCOVERY_SCANNED = "discovery_scanned";
+	public static final String TEMPLATES_COMPILED = "templates_compiled";
+	// routing a host over WiFi, see WifiBinder
+	public static final String BIND = "bind";
+	public static final String ROUTE_FAILURES = "route_failures";
+	// from opening the credentials screen until it shows the status
+	public static final String UI_READY = "ui_ready";
+	public static final String NOTIFICATIONS_POSTED = "notifications_posted";
+	public static final String NOTIFICATIONS_AVOIDED = "notifications_avoided";
+	// the CPU kept awake for session commands, see WakeBudget
+	public static final String WAKE = "wake";
+	public static final String WAKE_KEEP_ALIVE = "wake_keep_alive";
+	// keep alive alarm wake ups, counted and per day, see KeepAliveScheduler
+	public static final String KA_WAKEUPS = "keep_alive_wakeups";
+	public static final String KA_WAKEUPS_DAILY = "keep_alive_wakeups_per_day";
+	public static final String KA_WAKEUPS_PROJECTED = "keep_alive_wakeups_projected";
+	public static final String KA_WAKEUPS_FIXED = "keep_alive_wakeups_fixed";
+
+	private static LoginMetrics instance;
+
+	/**
+	 * Latency histogram and outcome counts of one phase
+	 */
+	public static class Timer {
+		private final AtomicLong mCount = new AtomicLong();
+		private final AtomicLong mFailures = new AtomicLong();
+		private final AtomicLong mTotal = new AtomicLong();
+		private final AtomicLong mMax = new AtomicLong();
+		private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS.length + 1);
+
+		void record(long elapsed, boolean success) {
+			mCount.incrementAndGet();
+			if (!success) mFailures.incrementAndGet();
+			mTotal.addAndGet(elapsed);
+			long max;
+			while (elapsed > (max = mMax.get()) && !mMax.compareAndSet(max, elapsed));
+			int bucket = 0;
+			while (bucket < BUCKETS.length && elapsed > BUCKETS[bucket]) bucket++;
+			mBuckets.incrementAndGet(bucket);
+		}
+
+		public long getCount() {
+			return mCount.get();
+		}
+
+		public long getFailures() {
+			return mFailures.get();
+		}
+
+		public long getMean() {
+			long count = mCount.get();
+			return count == 0 ? 0 : mTotal.get() / count;
+		}
+
+		public long getMax() {
+			return mMax.get();
+		}
+
+		/**
+		 * @param fraction e.g. 0.99 for the 99th percentile
+		 * @return the upper bound of the bucket the percentile falls into,
+		 * the maximum for the open bucket
+		 */
+		public long getPercentile(double fraction) {
+			long count = 0;
+			long[] buckets = new long[mBuckets.length()];
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = mBuckets.get(i);
+				count += buckets[i];
+			}
+			long rank = (long) Math.ceil(count * fraction);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank && seen > 0) {
+					return i < BUCKETS.length ? BUCKETS[i] : getMax();
+				}
+			}
+			return 0;
+		}
+
+		JSONObject toJson() throws JSONException {
+			JSONArray buckets = new JSONArray();
+			for (int i = 0; i < mBuckets.length(); i++) {
+				buckets.put(mBuckets.get(i));
+			}
+			return new JSONObject().put("count", getCount())
+					.put("failures", getFailures())
+					.put("mean", getMean())
+					.put("p50", getPercentile(0.5))
+					.put("p99", getPercentile(0.99))
+					.put("max", getMax())
+					.put("buckets", buckets);
+		}
+
+		@Override
+		public String toString() {
+			return getCount() + " (" + getFailures() + " failed), mean "
+					+ getMean() + "ms, p50 " + getPercentile(0.5) + "ms, p99 "
+					+ getPercentile(0.99) + "ms, max " + getMax() + "ms";
+		}
+	}
+
+	private final ConcurrentMap<String, Timer> mTimers
+			= new ConcurrentHashMap<String, Timer>();
+	private final ConcurrentMap<String, AtomicLong> mCounters
+			= new ConcurrentHashMap<String, AtomicLong>();
+	private final long mSince = System.currentTimeMillis();
+
+	private LoginMetrics() {
+	}
+
+	public static synchronized LoginMetrics getInstance() {
+		if (instance == null)
+			instance = new LoginMetrics();
+		return instance;
+	}
+
+	public Timer getTimer(String name) {
+		Timer timer = mTimers.get(name);
+		if (timer == null) {
+			Timer created = new Timer();
+			timer = mTimers.putIfAbsent(name, created);
+			if (timer == null) timer = created;
+		}
+		return timer;
+	}
+
+	/**
+	 * @param name the phase, see {@link PhaseTimer}
+	 * @param elapsed the time it took, in ms
+	 * @param success whether the phase achieved what it set out to do
+	 */
+	public void record(String name, long elapsed, boolean success) {
+		getTimer(name).record(elapsed, success);
+	}
+
+	public void increment(String name) {
+		getCounter(name).incrementAndGet();
+	}
+
+	/**
+	 * Sets a counter which tracks a value kept elsewhere, rather than
+	 * counting events of this process
+	 */
+	public void set(String name, long value) {
+		getCounter(name).set(value);
+	}
+
+	private AtomicLong getCounter(String name) {
+		AtomicLong counter = mCounters.get(name);
+		if (counter == null) {
+			AtomicLong created = new AtomicLong();
+			counter = mCounters.putIfAbsent(name, created);
+			if (counter == null) counter = created;
+		}
+		return counter;
+	}
+
+	public long getCount(String name) {
+		AtomicLong counter = mCounters.get(name);
+		return counter == null ? 0 : counter.get();
+	}
+
+	/**
+	 * @return a snapshot of every timer and counter, with the histogram
+	 * bucket bounds so it can be read on its own
+	 */
+	public JSONObject toJson() {
+		JSONObject json = new JSONObject();
+		try {
+			JSONArray bounds = new JSONArray();
+			for (long bound : BUCKETS) bounds.put(bound);
+			json.put("since", mSince).put("buckets", bounds);
+			JSONObject timers = new JSONObject();
+			for (Map.Entry<String, Timer> e : new TreeMap<String, Timer>(mTimers)
+					.entrySet()) {
+				timers.put(e.getKey(), e.getValue().toJson());
+			}
+			JSONObject counters = new JSONObject();
+			for (Map.Entry<String, AtomicLong> e : new TreeMap<String, AtomicLong>(
+					mCounters).entrySet()) {
+				counters.put(e.getKey(), e.getValue().get());
+			}
+			json.put("timers", timers).put("counters", counters);
+		} catch (JSONException e) {
+			// only thrown for non finite numbers
+		}
+		return json;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Timer> e : new TreeMap<String, Timer>(mTimers)
+				.entrySet()) {
+			sb.append(e.getKey()).append(" : ").append(e.getValue()).append('\n');
+		}
+		for (Map.Entry<String, AtomicLong> e : new TreeMap<String, AtomicLong>(
+				mCounters).entrySet()) {
+			sb.append(e.getKey()).append(" : ").append(e.getValue().get()).append('\n');
+		}
+		return sb.length() == 0 ? "No data yet" : sb.toString().trim();
+	}
+}
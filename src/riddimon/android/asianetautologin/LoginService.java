@@ -20,43 +20,31 @@
 package riddimon.android.asianetautologin;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.InputStream;
 
-import org.apache.http.Header;
-import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.apache.http.client.methods.HttpGet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import riddimon.android.asianetautologin.HttpUtils.HttpMethod;
 import android.app.AlarmManager;
-import android.app.Notification;
-import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.net.ConnectivityManager;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.IBinder;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.NotificationCompat.Builder;
+import android.os.SystemClock;
 import android.support.v4.content.LocalBroadcastManager;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
 
-public class LoginService extends Service {
+public class LoginService extends Service implements SessionEngine.CommandHandler {
 	private static final Logger logger = LoggerFactory.getLogger(LoginService.class);
 	private static final int REQUEST_CODE = 100;
-	private static final long REPEAT_FREQ = 5 * DateUtils.MINUTE_IN_MILLIS;
+	private static final int REQUEST_CODE_RETRY = 101;
 
 	public static final String ACTION_LOGIN = "action_login";
 	public static final String ACTION_KEEP_ALIVE = "action_keep_alive";
@@ -64,11 +52,11 @@ public class LoginService extends Service {
 
 	public static final String EX_STATUS = "status";
 	public static final String EX_LOGGED_IN_ELSEWHERE = "elsewhere";
+	// name of the LoginClassifier.Result of the login, if one was made
+	public static final String EX_RESULT = "result";
 	public static final int STATUS_OK = 1;
 	public static final int STATUS_FAIL = 2;
 
-	private static final String REFERENCE_SITE = "http://www.google.co.in";
-
 	// logout
 	private static final String FIELD_LOGOUT_ID = "logout_id";
 	private static final String FIELD_LOGOUT = "logout";
@@ -87,8 +75,15 @@ public class LoginService extends Service {
 	private static final String FIELD_AUTH_REDIR_URL = "redirurl";
 	private static final String FIELD_AUTH_REDIR_URL_VAL = "$PORTAL_REDIRURL$";
 
-	private static final String URL_REGEX = "^(https?|ftp|file)://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|]";
-	private static final SimpleDateFormat sdf = new SimpleDateFormat("kk:mm dd/MM/yyyy");
+	// portal pages are small, anything beyond this is not worth reading
+	private static final int MAX_PAGE_SIZE = 256 * 1024;
+
+	private SessionEngine mEngine;
+	private LoginStatus mLoginStatus;
+	private WakeBudget mWake;
+	// the run of attempts in progress, only touched on the engine's worker
+	private int mAttempt = 0;
+	private long mFirstFailure = 0;
 
 	public class LoginBinder extends Binder {
 		LoginService getService() {
@@ -101,27 +96,48 @@ public class LoginService extends Service {
 		return new LoginBinder();
 	}
 
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		mWake = WakeBudget.getInstance(this);
+		mEngine = new SessionEngine(this);
+		mLoginStatus = new LoginStatus(this);
+	}
+
+	/**
+	 * @return the last known login status, which the UI can show without
+	 * waiting for the network
+	 */
+	public LoginStatus getLoginStatus() {
+		return mLoginStatus;
+	}
+
+	/**
+	 * Returns the engine which serializes login / keep alive / logout work,
+	 * mainly so that its queue depth and in-flight state can be inspected
+	 * @return
+	 */
+	public SessionEngine getSessionEngine() {
+		return mEngine;
+	}
+
 	/**
-	 * Ping reference site to check if the site is accessible
+	 * Probe the internet to check if we are past the captive portal
 	 * <p><b>Warning :</b> This method runs on the called thread.</p>
 	 * @return
 	 */
 	public boolean isLoggedIn() {
-		boolean loggedIn = false;
-		HttpResponse response = HttpUtils.execute(this, HttpMethod.GET, REFERENCE_SITE, null);
-		if (response != null) {
-			if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-				loggedIn = true;
-			}
-		}
-		logger.info("Redirected : {}", !loggedIn);
-		if (!loggedIn && response != null) {
-			Header[] headers = response.getHeaders("Location");
-			if (headers != null && headers.length > 0) {
-				logger.info("Redirected to : {}", headers[0].getValue());
-			}
-		}
-		return loggedIn;
+		return probe().isOpen();
+	}
+
+	/**
+	 * Probe the internet and report where the captive portal redirected us,
+	 * if it did
+	 * <p><b>Warning :</b> This method runs on the called thread.</p>
+	 * @return
+	 */
+	public ProbeEngine.Result probe() {
+		return ProbeEngine.getDefault().probe(this);
 	}
 
 	@Override
@@ -129,22 +145,99 @@ public class LoginService extends Service {
 		super.onStartCommand(intent, flags, startId);
 		if (intent != null) {
 			String action = intent.getAction();
-			Thread thread = new Thread(new ISPTask(this, action), "isp_worker");
-			thread.start();
+			if (ACTION_KEEP_ALIVE.equals(action)) {
+				KeepAliveScheduler.getInstance().onWakeup(this);
+			}
+			mEngine.submit(action);
+			logger.info("Session engine : {}", mEngine);
+			// an alarm for work that was merged away or dropped
+			if (!mEngine.isBusy()) {
+				KeepAliveScheduler.getInstance().flush(this);
+				mWake.release();
+			}
+		} else {
+			// restarted after our process was killed
+			resume();
 		}
 		return Service.START_STICKY;
 	}
 
-	
+	/**
+	 * Picks the session up where the killed process left it. An established
+	 * session only needs a keep alive, and an interrupted login starts over
+	 * with the portal action cached for this network.
+	 */
+	private void resume() {
+		SessionState state = SessionState.getInstance(this);
+		String action = null;
+		if (!SettingsManager.getConfig(this).logIn) {
+			// the user logged out
+		} else if (state.isLoggedIn()) {
+			action = ACTION_KEEP_ALIVE;
+		} else if (state.get() != SessionState.State.DISCONNECTED) {
+			action = ACTION_LOGIN;
+		}
+		logger.info("Restarted in state {}, resuming with {}", state, action);
+		if (action == null) return;
+		LoginMetrics.getInstance().increment(LoginMetrics.RESUMES);
+		EventLog.getInstance(this).log(EventLog.RESUME, state.get().ordinal(), 0);
+		mEngine.submit(action);
+	}
+
+	private PendingIntent getRetryIntent() {
+		return AlarmReceiver.getIntent(this, REQUEST_CODE_RETRY, ACTION_LOGIN);
+	}
+
+	/**
+	 * Forgets the run of attempts, the next command starts a new one
+	 */
+	private void endRun() {
+		mAttempt = 0;
+		mFirstFailure = 0;
+	}
+
+	private void cancelRetry() {
+		AlarmManager am = (AlarmManager) getSystemService(ALARM_SERVICE);
+		am.cancel(getRetryIntent());
+	}
+
+	/**
+	 * Runs on the session engine's worker thread, one command at a time
+	 */
+	@Override
+	public void handle(String action) {
+		new ISPTask(this, action).run();
+	}
+
+	/**
+	 * Keeps the CPU awake from the moment a command is queued, as early as
+	 * we get to run after an alarm
+	 */
+	@Override
+	public void onBusy() {
+		mWake.hold();
+	}
+
+	@Override
+	public void onIdle() {
+		// the keep alive cycle is over, its changes go out in one write
+		KeepAliveScheduler.getInstance().flush(this);
+		long held = mWake.release();
+		logger.debug("Kept awake for {} ms", held);
+	}
+
 	@Override
 	public void onDestroy() {
 		super.onDestroy();
+		// stops a retry that may be waiting, and any later one
+		mEngine.shutdown();
+		cancelRetry();
+		// stopped on purpose, a restart has nothing to resume
+		SessionState.getInstance(this).moveTo(this, SessionState.State.DISCONNECTED);
 
 		// cancel the notification so the user knows that the login process
 		// is not active
-		NotificationManager nm = (NotificationManager) getSystemService(
-				NOTIFICATION_SERVICE);
-		nm.cancel(1000);
+		NotificationController.getInstance(this).clear();
 
 		logger.info("LoginService is destroyed");
 	}
@@ -152,79 +245,144 @@ public class LoginService extends Service {
 	private class ISPTask implements Runnable {
 		Context mContext;
 		String mAction;
+		PhaseTimer mTimer;
+		EventLog mEvents;
+		SessionState mState;
+		// outcome of the last work()
+		boolean mStatus;
+		RetryPolicy.Failure mFailure;
+		// what the portal made of our credentials, null if none were sent
+		LoginClassifier.Result mResult;
+		// whether the last form was found in FormCache
+		boolean mFormCached;
+		// the network being worked on, found portal urls are kept with it
+		ProfileManager.Profile mProfile;
 
 		public ISPTask(Context context, String action) {
 			this.mContext = context;
 			this.mAction = action;
+			this.mEvents = EventLog.getInstance(context);
+			this.mState = SessionState.getInstance(context);
 		}
 
+		/**
+		 * Makes one attempt of the current run. A failed attempt which is
+		 * worth repeating is retried from an alarm, so the CPU can sleep
+		 * through the backoff.
+		 */
 		@Override
 		public void run() {
-			int attempt = 0;
-			while (attempt++ < 3) {
-				if (work()) {
-					try {
-						Thread.sleep((attempt + 1) * 3 * DateUtils.SECOND_IN_MILLIS);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-						break;
+			RetryPolicy policy = RetryPolicy.getDefault();
+			LoginMetrics metrics = LoginMetrics.getInstance();
+			// interrupted by the session engine, on logout or disconnect
+			if (Thread.currentThread().isInterrupted()) return;
+			int attempt = ++mAttempt;
+			if (!work()) {
+				if (mStatus) {
+					policy.reset();
+					cancelRetry();
+					if (mFirstFailure != 0) {
+						metrics.record(LoginMetrics.RECOVERY, SystemClock
+								.elapsedRealtime() - mFirstFailure, true);
 					}
 				}
+				endRun();
+				return;
 			}
-			if (attempt == 3) {
-				// schedule attempt after ten seconds
-				setAlarm(10 * DateUtils.SECOND_IN_MILLIS, false);
+
+			RetryPolicy.Failure failure = mFailure == null
+					? RetryPolicy.Failure.REJECTED : mFailure;
+			if (mFirstFailure == 0) mFirstFailure = SystemClock.elapsedRealtime();
+			long delay = policy.next(failure, attempt);
+			if (delay < 0) {
+				metrics.increment(LoginMetrics.GAVE_UP);
+				metrics.record(LoginMetrics.RECOVERY, SystemClock.elapsedRealtime()
+						- mFirstFailure, false);
+				endRun();
+				// try once more later, unless the portal turned us down
+				long fallback = policy.fallback(failure);
+				if (fallback >= 0) scheduleRetry(fallback);
+				mState.moveTo(mContext, SessionState.State.DISCONNECTED);
+				logger.info("Giving up after {} attempts ({}), next try in {} ms"
+						, new Object[] {attempt, failure, fallback});
+				return;
 			}
+			metrics.increment(LoginMetrics.RETRIES);
+			mEvents.log(EventLog.RETRY, failure.ordinal(), delay, attempt);
+			logger.info("Attempt {} failed ({}), retrying in {} ms"
+					, new Object[] {attempt, failure, delay});
+			scheduleRetry(delay);
 		}
 
 		private boolean work() {
 			// don't proceed if we're not connected to the proper network
-			ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(Context
-					.CONNECTIVITY_SERVICE);
 			boolean status = true;
 			boolean retry = false;
 			boolean loggedInElseWhere = false;
-			boolean connected = NetworkUtil.isConnectedToProperNetwork(mContext);
+			mTimer = new PhaseTimer();
+			mFailure = null;
+			mResult = null;
+			ProfileManager.Profile profile = ProfileManager.getInstance().match(mContext);
+			mProfile = profile;
+			boolean connected = profile != null;
 			logger.info("Connected to proper network : {}", connected);
+			// whether the portal or the internet told us where we stand
+			boolean verified = connected;
 
-			// set preferred network to WiFi so that, in the case of login
-			// google is contacted through the WiFi network rather than the 
-			// 3G network
-
-			int cmp = cm.getNetworkPreference();
-			cm.setNetworkPreference(ConnectivityManager.TYPE_WIFI);
+			// every request is routed over WiFi by HttpUtils, so the probe
+			// doesn't reach google over 3G
 			status &= connected;
 
 			if (connected) {
-				String username = SettingsManager.getString(mContext
-						, SettingsManager.USERNAME, null);
-				String password = SettingsManager.getString(mContext
-						, SettingsManager.PASSWORD, null);
-				String url = SettingsManager.getString(mContext
-						, SettingsManager.URL, null);
+				String username = profile.username;
+				String password = profile.password;
+				String url = profile.url;
 
 				logger.info("Operation : {}", mAction);
 				boolean renewOrLogin = shouldRenewOrLogin();
 				if (mAction.equals(LoginService.ACTION_KEEP_ALIVE) && renewOrLogin) {
+					KeepAliveScheduler scheduler = KeepAliveScheduler.getInstance();
+					long interval = scheduler.getInterval(mContext);
+					// traffic kept the session in use, there is nothing to send
+					boolean skip = !TextUtils.isEmpty(url) && !scheduler.shouldPing(mContext);
 					// if we don't know the url, login will find it
-					status &= TextUtils.isEmpty(url) ? login(url, username
-							, password)	: keepAlive(url, username);
-					retry = !status;
+					boolean alive = skip || !TextUtils.isEmpty(url) && keepAlive(url, username);
+					verified = !skip;
+					if (alive && interval != scheduler.getInterval(mContext)) {
+						scheduleKeepAlive();
+					} else if (!alive) {
+						ProbeEngine.Result probe = probe();
+						if (probe.verdict == ProbeEngine.Verdict.PORTAL
+								&& !TextUtils.isEmpty(url)) {
+							// the portal dropped us before the keep alive came
+							scheduler.onSessionLost(mContext);
+							mEvents.log(EventLog.SESSION_LOST, 0, 0
+									, scheduler.getIdleTimeout(mContext));
+						}
+						alive = login(probe, username, password);
+					}
+					status &= alive;
+					retry = shouldRetry(status);
 				} else if (mAction.equals(LoginService.ACTION_LOGIN) && renewOrLogin) {
-					boolean loggedIn = isLoggedIn();
+					ProbeEngine.Result probe = probe();
+					boolean loggedIn = probe.isOpen();
 					if (loggedIn && !TextUtils.isEmpty(url)) {
 						status &= keepAlive(url, username);
 						if (status) {
-							setAlarm(REPEAT_FREQ, true);
+							scheduleKeepAlive();
 						}
 						retry = !status;
 					} else if (!loggedIn) {
-						status &= login(url, username, password);
-						retry = !status;
+						status &= login(probe, username, password);
+						retry = shouldRetry(status);
 					} else {
 						status = false;
 						loggedInElseWhere = true;
 					}
+					if (status) ConnectionWarmer.getInstance().onOnline();
+					if (mResult == LoginClassifier.Result.ALREADY_LOGGED_IN) {
+						loggedInElseWhere = true;
+					}
 				} else if (mAction.equals(LoginService.ACTION_LOGOUT) && !TextUtils.isEmpty(url)) {
 					status &= logout(url, username);
 					// no need to continue running the service
@@ -232,206 +390,360 @@ public class LoginService extends Service {
 					stopSelf();
 				} else {
 					status = false;
+					verified = false;
 				}
 			}
 
+			mTimer.end();
+			mStatus = status;
+			if (status && !mAction.equals(LoginService.ACTION_LOGOUT)) {
+				mState.moveTo(mContext, SessionState.State.ONLINE);
+			} else if (!retry) {
+				mState.moveTo(mContext, SessionState.State.DISCONNECTED);
+			}
+			// else a retry follows, and a restart resumes from where we are
+			if (mAction.equals(LoginService.ACTION_LOGOUT)) {
+				mLoginStatus.update(!status, status ? LoginStatus.Confidence.VERIFIED
+						: LoginStatus.Confidence.ASSUMED);
+			} else {
+				mLoginStatus.update(status, verified ? LoginStatus.Confidence.VERIFIED
+						: LoginStatus.Confidence.ASSUMED);
+			}
+			logger.info("{} took {}", mAction, mTimer);
+			LoginMetrics.getInstance().record(mAction, mTimer.getTotal(), status);
+
 			Intent intent = new Intent(mAction);
 			intent.putExtra(EX_STATUS, status);
 			intent.putExtra(EX_LOGGED_IN_ELSEWHERE, loggedInElseWhere);
+			if (mResult != null) intent.putExtra(EX_RESULT, mResult.name());
 			LocalBroadcastManager.getInstance(mContext).sendBroadcast(intent);
-			cm.setNetworkPreference(cmp);
 
 			return retry;
 		}
 
-		private String getUrlFromPage(String url) {
-			HttpResponse response = HttpUtils
-					.execute(mContext, HttpMethod.GET, url, null);
-			String furl = null;
-			if (response != null) {
-				if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-					try {
-						String page = HttpUtils.readStreamIntoString(response
-								.getEntity().getContent());
-						Document doc = Jsoup.parse(page, url);
-						Elements elements = doc.getElementsByTag("form");
-						for (Element el : elements) {
-							furl = el.attr("action");
-							if (furl.matches(URL_REGEX)) {
-								break;
-							} else furl = null;
-							logger.info("Found action URL : {}", furl);
-						}
-					} catch (IllegalStateException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					} catch (IOException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
+		/**
+		 * @return true if a failed login is worth another attempt
+		 */
+		private boolean shouldRetry(boolean status) {
+			return !status && (mResult == null || !mResult.isFinal);
+		}
+
+		private ProbeEngine.Result probe() {
+			mState.moveTo(mContext, SessionState.State.PROBING);
+			mTimer.begin(PhaseTimer.PROBE);
+			try {
+				ProbeEngine.Result result = LoginService.this.probe();
+				long elapsed = mTimer.end(result.verdict != ProbeEngine.Verdict.NO_ROUTE);
+				if (result.verdict == ProbeEngine.Verdict.NO_ROUTE) {
+					mFailure = RetryPolicy.Failure.NO_ROUTE;
+				}
+				mEvents.log(EventLog.PROBE, result.verdict.ordinal(), elapsed);
+				return result;
+			} finally {
+				mTimer.end(false);
+			}
+		}
+
+		/**
+		 * Finds the login form on the portal page, streaming the page and
+		 * falling back to a full parse if that fails
+		 * @param url the portal page
+		 * @return the form, or null if none was found
+		 */
+		private FormScanner.Form getFormFromPage(String url) {
+			mFormCached = false;
+			FormScanner.Form form = scanFormFromPage(url);
+			if (form == null) {
+				logger.info("Streaming scan found no form, parsing the page");
+				form = parseFormFromPage(url);
+			}
+			logger.info("Found action URL : {}", form);
+			return form;
+		}
+
+		private FormScanner.Form scanFormFromPage(final String url) {
+			final FormCache cache = FormCache.getInstance();
+			final FormCache.Entry entry = cache.get(mContext, url);
+			HttpGet get = new HttpGet(url);
+			FormCache.addValidators(get, entry);
+			// whatever is left of the page once the form is found is not
+			// downloaded, HttpUtils drops the connection instead
+			return HttpUtils.execute(mContext, get
+					, new HttpUtils.BodyHandler<FormScanner.Form>() {
+				@Override
+				public FormScanner.Form handle(HttpResult head, InputStream body)
+						throws IOException {
+					if (entry != null && head.getStatusCode() == HttpStatus
+							.SC_NOT_MODIFIED) {
+						mFormCached = true;
+						return cache.notModified(entry);
+					}
+					if (body == null || head.getStatusCode() != HttpStatus.SC_OK) {
+						return null;
 					}
+					FormScanner.Form form = cache.scan(mContext, url, head, body, entry
+							, new FormScanner(FormScanner.ABSOLUTE_URL));
+					mFormCached = form != null && form == (entry == null ? null
+							: entry.form);
+					return form;
 				}
+			});
+		}
+
+		private FormScanner.Form parseFormFromPage(String url) {
+			HttpResult response = HttpUtils.execute(mContext, HttpMethod.GET, url
+					, null, null, MAX_PAGE_SIZE);
+			if (response == null || response.getBody() == null
+					|| response.getStatusCode() != HttpStatus.SC_OK) {
+				return null;
+			}
+			FormScanner.Form form = FormScanner.parse(response.getBodyAsString(), url
+					, FormScanner.ABSOLUTE_URL);
+			// next time the fingerprint spares us the parse
+			if (form != null && !response.isTruncated()) {
+				FormCache.getInstance().putParsed(mContext, url, response, form);
 			}
-			return furl;
+			return form;
 		}
 
-		private boolean login(String url, String uname, String pwd) {
+		/**
+		 * @param probe the result of a probe made just before, or null to
+		 * probe again
+		 */
+		private boolean login(ProbeEngine.Result probe, String uname, String pwd) {
 			logger.info("Login initiated");
-			boolean alreadyLoggedIn = isLoggedIn();
+			if (probe == null) probe = probe();
+			if (probe.isOpen()) {
+				logger.info("Already logged in");
+				return true;
+			}
+			// post straight to the action we found last time on this network,
+			// and only rediscover it if the portal doesn't accept that
+			PortalCache cache = PortalCache.getInstance();
+			String url = cache.get(mProfile);
+			if (!TextUtils.isEmpty(url)) {
+				LoginClassifier.Result result = postCredentials(url, uname, pwd);
+				if (result != null && (result == LoginClassifier.Result.SUCCESS
+						|| result.isFinal)) {
+					// the action is right, whatever the portal thinks of us
+					cache.validated();
+					return result == LoginClassifier.Result.SUCCESS;
+				}
+				cache.invalidate(mContext, mProfile);
+			}
+
+			long start = SystemClock.elapsedRealtime();
+			url = discover(probe);
+			if (TextUtils.isEmpty(url)) return false;
+			// keep alive and logout go to the same place
+			cache.put(mContext, mProfile, url, SystemClock.elapsedRealtime() - start);
+			logger.info("{}", cache);
+			return postCredentials(url, uname, pwd) == LoginClassifier.Result.SUCCESS;
+		}
+
+		/**
+		 * Finds the login form action on the page the portal redirected us
+		 * to, or served in place of the probe
+		 * @return the action url, or null if it could not be found
+		 */
+		private String discover(ProbeEngine.Result probe) {
 			// the url might change from time to time, so keep it updated
-			if (!alreadyLoggedIn/* && TextUtils.isEmpty(url)*/) {
-				// find the url
-				HttpResponse response = HttpUtils
-						.execute(mContext, HttpMethod.GET, REFERENCE_SITE, null);
-				boolean found = false;
-				if (response != null) {
-					if (response.getStatusLine().getStatusCode()
-							== HttpStatus.SC_MOVED_TEMPORARILY) {
-						Header[] headers = response.getHeaders("Location");
-						if (headers != null) {
-							for (Header header : headers) {
-								if (header.getName().equalsIgnoreCase("Location")) {
-									url = header.getValue();
-									Uri uri = Uri.parse(url);
-									StringBuilder urlbuilder = new StringBuilder();
-									url = urlbuilder.append(uri.getScheme())
-											.append("://").append(uri.getAuthority())
-											.toString();
-									// now visit this url and get the action from
-									// the login form
-									url = getUrlFromPage(url);
-									if (!TextUtils.isEmpty(url)) {
-										logger.info("Found URL from page : {}", url);
-										SettingsManager.putString(mContext
-												, SettingsManager.URL, url);
-										found = true;
-									}
-								}
-							}
-						}
+			// from the page the portal redirected us to
+			String url = null;
+			mState.moveTo(mContext, SessionState.State.DISCOVERING);
+			mTimer.begin(PhaseTimer.DISCOVERY);
+			if (!TextUtils.isEmpty(probe.location)) {
+				Uri uri = Uri.parse(probe.location);
+				StringBuilder urlbuilder = new StringBuilder();
+				url = probe.location.equals(probe.target.url) ? probe.location
+						: urlbuilder.append(uri.getScheme())
+						.append("://").append(uri.getAuthority())
+						.toString();
+				// now visit this url and get the action from
+				// the login form
+				FormScanner.Form form = getFormFromPage(url);
+				url = form == null ? null : form.action;
+				if (!TextUtils.isEmpty(url)) logger.info("Found URL from page : {}", url);
+			}
+			long elapsed = mTimer.end(!TextUtils.isEmpty(url));
+			if (TextUtils.isEmpty(url)) fail();
+			else LoginMetrics.getInstance().record(mFormCached ? LoginMetrics
+					.DISCOVERY_CACHED : LoginMetrics.DISCOVERY_SCANNED, elapsed, true);
+			mEvents.log(EventLog.DISCOVERY, TextUtils.isEmpty(url) ? 0 : 1, elapsed);
+			return url;
+		}
+
+		/**
+		 * @return what the portal made of the login, null if it could not be
+		 * reached or answered with an error
+		 */
+		private LoginClassifier.Result postCredentials(String url, String uname
+				, String pwd) {
+			RequestTemplate template = RequestTemplate.get(ACTION_LOGIN, url
+					, FIELD_AUTH_USER, uname, FIELD_AUTH_PASS, pwd
+					, FIELD_AUTH_ACCEPT, FIELD_AUTH_ACCEPT_VALUE
+					, FIELD_AUTH_REDIR_URL, FIELD_AUTH_REDIR_URL_VAL);
+
+			mState.moveTo(mContext, SessionState.State.AUTHENTICATING);
+			mTimer.begin(PhaseTimer.POST);
+			LoginClassifier.Result result = template == null ? null : HttpUtils.execute(
+					mContext, template.newRequest(), new HttpUtils.BodyHandler<LoginClassifier.Result>() {
+				@Override
+				public LoginClassifier.Result handle(HttpResult head, InputStream body)
+						throws IOException {
+					int code = head.getStatusCode();
+					if (code != HttpStatus.SC_OK) {
+						// a redirect may well be to the page we asked for
+						return code / 100 == 3 ? LoginClassifier.Result.UNKNOWN : null;
 					}
+					if (body == null) return LoginClassifier.Result.UNKNOWN;
+					long start = SystemClock.elapsedRealtime();
+					LoginClassifier classifier = new LoginClassifier();
+					LoginClassifier.Result result = classifier.classify(body
+							, MAX_PAGE_SIZE);
+					long elapsed = SystemClock.elapsedRealtime() - start;
+					LoginMetrics.getInstance().record(LoginMetrics.CLASSIFY, elapsed
+							, result != LoginClassifier.Result.UNKNOWN);
+					logger.info("Login page says {} after {} bytes, {} ms", new Object[] {
+							result, classifier.getBytesRead(), elapsed});
+					return result;
 				}
-				if (!found) return false;
+			});
+			if (result == LoginClassifier.Result.UNKNOWN) {
+				// only the internet can tell, it is open if we're logged in
+				result = LoginService.this.probe().isOpen()
+						? LoginClassifier.Result.SUCCESS : LoginClassifier.Result.UNKNOWN;
 			}
-			Map<String, String> paramz = new HashMap<String, String>();
-			paramz.put(FIELD_AUTH_USER, uname);
-			paramz.put(FIELD_AUTH_PASS, pwd);
-			paramz.put(FIELD_AUTH_ACCEPT, FIELD_AUTH_ACCEPT_VALUE);
-			paramz.put(FIELD_AUTH_REDIR_URL, FIELD_AUTH_REDIR_URL_VAL);
-
-			HttpResponse response = HttpUtils
-					.execute(mContext, HttpMethod.POST, url, paramz);
-			if (response != null && response.getStatusLine().getStatusCode()
-					== HttpStatus.SC_OK) {
-				logger.info("Login succeeded");
-				try {
-					String loginPage = HttpUtils.readStreamIntoString(response
-							.getEntity().getContent());
-					logger.info(loginPage);
-				} catch (IllegalStateException e) {
-					e.printStackTrace();
-				} catch (IOException e) {
-					e.printStackTrace();
+			boolean ok = result == LoginClassifier.Result.SUCCESS;
+			long elapsed = mTimer.end(ok);
+			mResult = result;
+			if (!ok) {
+				fail();
+				if (result != null) {
+					LoginMetrics.getInstance().record(LoginMetrics.BAD_LOGIN, elapsed
+							, true);
 				}
+			}
+			mEvents.log(EventLog.LOGIN, result == null ? -1 : result.ordinal(), elapsed);
+			if (ok) {
+				logger.info("Login succeeded");
+				KeepAliveScheduler.getInstance().onContact(mContext, false);
+				// set alarm to keep the session alive
+				scheduleKeepAlive();
+			} else {
+				logger.info("Login to {} failed : {}", url, result);
+			}
+			return result;
+		}
 
-				// set alarm to run service every 5 mins
-				setAlarm(REPEAT_FREQ, true);
+		private PendingIntent getKeepAliveIntent() {
+			return AlarmReceiver.getIntent(mContext, REQUEST_CODE, ACTION_KEEP_ALIVE);
+		}
 
-				return true;
-			}
-			return false;
+		/**
+		 * Records why the request just made on this thread failed
+		 */
+		private void fail() {
+			mFailure = RetryPolicy.classify(HttpUtils.getLastError());
 		}
 
-		private void setAlarm(long interval, boolean repeat) {
+		/**
+		 * Schedules a login attempt, separately from the keep alive alarm so
+		 * that one stays as it is
+		 */
+		private void scheduleRetry(long delay) {
 			AlarmManager am = (AlarmManager) getSystemService(ALARM_SERVICE);
-			Intent intent = new Intent(ACTION_KEEP_ALIVE);
-			intent.setClass(mContext, LoginService.class);
-			PendingIntent pi = PendingIntent.getService(mContext, REQUEST_CODE
-					, intent
-					, PendingIntent.FLAG_CANCEL_CURRENT);
-			long next = System.currentTimeMillis() + interval + 1000;
-			if (repeat) {
-				am.setRepeating(AlarmManager.RTC_WAKEUP, next, REPEAT_FREQ, pi);
-				// if show notification is enabled, show it
-				if (SettingsManager.getBoolean(mContext, SettingsManager.SHOW_NOTIF
-						, true)) {
-					long now = System.currentTimeMillis();
-					int limit = SettingsManager.getInt(mContext
-							, SettingsManager.KEEP_ALIVE, -1);
-					long login = SettingsManager.getLong(mContext
-							, SettingsManager.LOG_IN_TIME, now);
-		
-					NotificationManager nm = (NotificationManager) getSystemService(
-							NOTIFICATION_SERVICE);
-					Builder b = new NotificationCompat.Builder(mContext);
-					b.setOngoing(true);
-					b.setContentTitle(getResources().getString(R.string.app_name));
-					b.setContentText(getResources().getString(R.string.from)
-							+ " : " + sdf.format(new Date(login))
-							+ (limit <= 0 ? "" : " | " + getResources().getString(R
-									.string.upto) + " : " + sdf.format(new Date(login
-											+ limit * DateUtils.HOUR_IN_MILLIS))));
-					b.setSmallIcon(R.drawable.ic_launcher);
-					b.setTicker(getResources().getString(R.string.logged_in)
-							+ ", " + getResources().getString(R.string.internet_access));
-					Intent i = new Intent(mContext, CredentialActivity.class);
-					PendingIntent pia = PendingIntent.getActivity(mContext, 0, i, Intent
-							.FLAG_ACTIVITY_CLEAR_TOP);
-					b.setContentIntent(pia);
-					Notification n = b.build();
-					nm.notify(1000, n);
-				}
+			am.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, SystemClock.elapsedRealtime()
+					+ delay, getRetryIntent());
+		}
+
+		/**
+		 * Runs keep alives at the interval the scheduler settled on, and
+		 * shows the notification if it is enabled
+		 */
+		private void scheduleKeepAlive() {
+			AlarmManager am = (AlarmManager) getSystemService(ALARM_SERVICE);
+			KeepAliveScheduler.getInstance().arm(mContext, am, getKeepAliveIntent());
+			// if show notification is enabled, show it
+			SettingsManager.Config config = SettingsManager.getConfig(mContext);
+			NotificationController notification = NotificationController.getInstance(
+					mContext);
+			if (config.showNotification) {
+				notification.showLoggedIn(config.logInTime == 0 ? System
+						.currentTimeMillis() : config.logInTime, config.keepAlive);
 			} else {
-				am.set(AlarmManager.RTC_WAKEUP, next, pi);
+				notification.cancel();
 			}
 		}
 
 		private boolean keepAlive(String url, String uname) {
-			logger.info("Keep alive initiated");
-			Map<String, String> paramz = new HashMap<String, String>();
-			paramz.put(FIELD_ALIVE_UN, uname);
-			paramz.put(FIELD_ALIVE, FIELD_ALIVE_VALUE);
-			HttpResponse response = HttpUtils
-					.execute(mContext, HttpMethod.POST, url, paramz);
-			boolean status = (response != null && (response.getStatusLine().getStatusCode()
-					== HttpStatus.SC_OK || response.getStatusLine().getStatusCode()
-					== HttpStatus.SC_NO_CONTENT));
-			if (response != null) {
-				logger.info("Keep alive response : {} / {}", response.toString()
-						, response.getStatusLine().toString());
+			RequestTemplate template = RequestTemplate.get(ACTION_KEEP_ALIVE, url
+					, FIELD_ALIVE, FIELD_ALIVE_VALUE, FIELD_ALIVE_UN, uname);
+			mState.moveTo(mContext, SessionState.State.EXPIRING);
+			mTimer.begin(PhaseTimer.KEEP_ALIVE);
+			final int[] code = new int[1];
+			// the portal answers 200 with its login page once it has dropped
+			// us, so the status code alone doesn't say the session is alive
+			LoginClassifier.Result result = template == null ? null : HttpUtils.execute(
+					mContext, template.newRequest(), new HttpUtils.BodyHandler<LoginClassifier.Result>() {
+				@Override
+				public LoginClassifier.Result handle(HttpResult head, InputStream body)
+						throws IOException {
+					code[0] = head.getStatusCode();
+					if (code[0] == HttpStatus.SC_NO_CONTENT) {
+						return LoginClassifier.Result.UNKNOWN;
+					}
+					if (code[0] != HttpStatus.SC_OK) return null;
+					if (body == null) return LoginClassifier.Result.UNKNOWN;
+					return new LoginClassifier().classify(body, MAX_PAGE_SIZE);
+				}
+			});
+			// no login form and no refusal, the portal took it
+			boolean status = result == LoginClassifier.Result.SUCCESS
+					|| result == LoginClassifier.Result.UNKNOWN;
+			KeepAliveScheduler scheduler = KeepAliveScheduler.getInstance();
+			if (result == LoginClassifier.Result.UNKNOWN && scheduler.isAboutToWiden()) {
+				// a wider interval is only earned by a session known to be alive
+				status = LoginService.this.probe().isOpen();
+			}
+			long elapsed = mTimer.end(status);
+			if (!status) fail();
+			mEvents.log(EventLog.KEEP_ALIVE, code[0], elapsed);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Keep alive : {} {}, connections : {}", new Object[] {
+						code[0], result, HttpUtils.getConnectionStats()});
 			}
-			logger.info("Keep alive status : {}", status);
+			if (status) scheduler.onContact(mContext, true);
 			return status;
 		}
 
 		private boolean logout(String url, String uname) {
 			logger.info("Logout initiated");
-			Map<String, String> paramz = new HashMap<String, String>();
-			paramz.put(FIELD_LOGOUT_ID, uname);
-			paramz.put(FIELD_LOGOUT, FIELD_LOGOUT_VALUE);
-			HttpResponse response = HttpUtils
-					.execute(mContext, HttpMethod.POST, url, paramz);
-			boolean status = (response != null && response.getStatusLine().getStatusCode()
+			RequestTemplate template = RequestTemplate.get(ACTION_LOGOUT, url
+					, FIELD_LOGOUT_ID, uname, FIELD_LOGOUT, FIELD_LOGOUT_VALUE);
+			mTimer.begin(PhaseTimer.LOGOUT);
+			HttpResult response = template == null ? null : HttpUtils.execute(mContext
+					, template.newRequest(), 0);
+			boolean status = (response != null && response.getStatusCode()
 					== HttpStatus.SC_OK);
+			long elapsed = mTimer.end(status);
+			mEvents.log(EventLog.LOGOUT, response == null ? 0 : response.getStatusCode()
+					, elapsed);
 			logger.info("Logout status : {}", status);
 
 			AlarmManager am = (AlarmManager) getSystemService(ALARM_SERVICE);
-			Intent intent = new Intent(ACTION_KEEP_ALIVE);
-			intent.setClass(mContext, LoginService.class);
-			PendingIntent pi = PendingIntent.getService(mContext, REQUEST_CODE, intent
-					, PendingIntent.FLAG_CANCEL_CURRENT);
-			am.cancel(pi);
-			NotificationManager nm = (NotificationManager) getSystemService(
-					NOTIFICATION_SERVICE);
-			nm.cancel(1000);
+			am.cancel(getKeepAliveIntent());
+			cancelRetry();
+			KeepAliveScheduler.getInstance().onLogout(mContext);
+			NotificationController.getInstance(mContext).clear();
 			return status;
 		}
 
 		private boolean shouldRenewOrLogin() {
 			long now = System.currentTimeMillis();
-			int limit = SettingsManager.getInt(mContext
-					, SettingsManager.KEEP_ALIVE, -1);
-			long login = SettingsManager.getLong(mContext
-					, SettingsManager.LOG_IN_TIME, now);
+			SettingsManager.Config config = SettingsManager.getConfig(mContext);
+			int limit = config.keepAlive;
+			long login = config.logInTime == 0 ? now : config.logInTime;
 			return limit > 0 ? now < (login + limit * DateUtils.HOUR_IN_MILLIS)
 					: true;
 		}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+
+/**
+ * The last known login status, kept by the service so that the UI can show
+ * it right away instead of probing the network every time it is opened.
+ * A status which is too old is checked again in the background, and
+ * listeners hear about the outcome.
+ * @author ridhishguhan
+ */
+public class LoginStatus {
+	private static final Logger logger = LoggerFactory.getLogger(LoginStatus.class);
+	// a verified status is trusted for this long
+	private static final long MAX_AGE = 2 * DateUtils.MINUTE_IN_MILLIS;
+
+	public enum Confidence {
+		/** nothing is known yet */
+		UNKNOWN,
+		/** inferred, e.g. from the state a killed process left behind */
+		ASSUMED,
+		/** seen by a probe, login or keep alive */
+		VERIFIED
+	}
+
+	/**
+	 * An immutable view of the status
+	 */
+	public static class Snapshot {
+		public final boolean loggedIn;
+		public final Confidence confidence;
+		/** wall clock time the status was established at */
+		public final long time;
+
+		Snapshot(boolean loggedIn, Confidence confidence, long time) {
+			this.loggedIn = loggedIn;
+			this.confidence = confidence;
+			this.time = time;
+		}
+
+		public boolean isStale() {
+			return confidence != Confidence.VERIFIED
+					|| Math.abs(System.currentTimeMillis() - time) > MAX_AGE;
+		}
+
+		@Override
+		public String toString() {
+			return (loggedIn ? "logged in" : "logged out") + " (" + confidence
+					+ ", " + (System.currentTimeMillis() - time) + " ms ago)";
+		}
+	}
+
+	public interface Listener {
+		/**
+		 * Called on the thread which changed the status
+		 */
+		void onStatus(Snapshot status);
+	}
+
+	private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+			new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "status");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final Context mContext;
+	private final CopyOnWriteArrayList<Listener> mListeners
+			= new CopyOnWriteArrayList<Listener>();
+	private final AtomicBoolean mRevalidating = new AtomicBoolean();
+	private volatile Snapshot mSnapshot;
+
+	public LoginStatus(Context context) {
+		mContext = context.getApplicationContext();
+		// what the session was doing when our process last went away
+		SessionState state = SessionState.getInstance(context);
+		mSnapshot = state.getSince() == 0 ? new Snapshot(false, Confidence.UNKNOWN, 0)
+				: new Snapshot(state.isLoggedIn(), Confidence.ASSUMED, state.getSince());
+	}
+
+	public Snapshot get() {
+		return mSnapshot;
+	}
+
+	public void update(boolean loggedIn, Confidence confidence) {
+		Snapshot snapshot = new Snapshot(loggedIn, confidence, System.currentTimeMillis());
+		mSnapshot = snapshot;
+		for (Listener listener : mListeners) listener.onStatus(snapshot);
+	}
+
+	/**
+	 * Probes in the background if the status is stale. Only one probe runs
+	 * at a time.
+	 * @return true if a probe was started
+	 */
+	public boolean revalidate() {
+		if (!mSnapshot.isStale() || !mRevalidating.compareAndSet(false, true)) {
+			return false;
+		}
+		logger.info("Revalidating {}", mSnapshot);
+		sExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					update(ProbeEngine.getDefault().probe(mContext).isOpen()
+							, Confidence.VERIFIED);
+				} finally {
+					mRevalidating.set(false);
+				}
+			}
+		});
+		return true;
+	}
+
+	public void addListener(Listener listener) {
+		mListeners.addIfAbsent(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		mListeners.remove(listener);
+	}
+}
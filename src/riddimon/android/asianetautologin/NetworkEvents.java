@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.text.format.DateUtils;
+
+/**
+ * Turns the stream of WiFi state broadcasts into start / stop decisions for
+ * {@link LoginService}. Events are handled on a background thread and only
+ * the last one within the debounce window counts, so a link that flaps or
+ * roams touches the service once instead of on every broadcast.
+ * @author ridhishguhan
+ */
+public class NetworkEvents {
+	private static final Logger logger = LoggerFactory.getLogger(NetworkEvents.class);
+
+	public static final int DISCONNECTED = 0;
+	public static final int CONNECTED = 1;
+	private static final int NONE = -1;
+
+	// a broadcast handled with goAsync has to finish within ten seconds
+	private static final long MAX_WINDOW = 5 * DateUtils.SECOND_IN_MILLIS;
+	private static final int MSG_SETTLE = 1;
+
+	// counters, see LoginMetrics
+	public static final String EVENTS = "net_events";
+	public static final String COLLAPSED = "net_events_collapsed";
+	public static final String STARTS = "service_starts";
+	public static final String STARTS_AVOIDED = "service_starts_avoided";
+	public static final String STOPS = "service_stops";
+	public static final String SWITCHES = "network_switches";
+
+	private static NetworkEvents instance;
+
+	private final Handler mHandler;
+	// guarded by this
+	private int mPending = NONE;
+	private Context mContext;
+	private Object mAsyncResult;
+	// only touched on the handler thread
+	private int mApplied = NONE;
+	// name of the profile mApplied was decided for
+	private String mAppliedNetwork;
+
+	private NetworkEvents() {
+		HandlerThread thread = new HandlerThread("network_events");
+		thread.start();
+		mHandler = new Handler(thread.getLooper(), new Handler.Callback() {
+			@Override
+			public boolean handleMessage(Message msg) {
+				settle();
+				return true;
+			}
+		});
+	}
+
+	public static synchronized NetworkEvents getInstance() {
+		if (instance == null)
+			instance = new NetworkEvents();
+		return instance;
+	}
+
+	/**
+	 * Queues a state change and (re)starts the debounce window. Call from
+	 * onReceive, the broadcast is kept alive until the event has been dealt
+	 * with where the platform allows it.
+	 * @param receiver the receiver handling the broadcast
+	 * @param state {@link #CONNECTED} or {@link #DISCONNECTED}
+	 */
+	public void post(BroadcastReceiver receiver, Context context, int state) {
+		Object asyncResult = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+				? Async.goAsync(receiver) : null;
+		LoginMetrics metrics = LoginMetrics.getInstance();
+		metrics.increment(EVENTS);
+		Object superseded;
+		synchronized (this) {
+			if (mPending != NONE) metrics.increment(COLLAPSED);
+			mPending = state;
+			mContext = context.getApplicationContext();
+			superseded = mAsyncResult;
+			mAsyncResult = asyncResult;
+		}
+		// only the latest broadcast has to wait for the outcome
+		if (superseded != null) Async.finish(superseded);
+		// from the cached snapshot, this runs on the main thread
+		long window = SettingsManager.getConfig(context).eventWindow;
+		mHandler.removeMessages(MSG_SETTLE);
+		mHandler.sendEmptyMessageDelayed(MSG_SETTLE, Math.max(0, Math.min(window
+				, MAX_WINDOW)));
+	}
+
+	private void settle() {
+		int state;
+		Context context;
+		Object asyncResult;
+		synchronized (this) {
+			state = mPending;
+			context = mContext;
+			asyncResult = mAsyncResult;
+			mPending = NONE;
+			mAsyncResult = null;
+		}
+		if (state == NONE) return;
+		try {
+			int decision = DISCONNECTED;
+			String network = null;
+			if (state == CONNECTED) {
+				boolean login = SettingsManager.getConfig(context).logIn;
+				ProfileManager.Profile profile = login ? ProfileManager.getInstance()
+						.match(context) : null;
+				if (profile != null) {
+					logger.info("WiFi connected to proper network");
+					decision = CONNECTED;
+					network = profile.name;
+				} else if (login) {
+					logger.info("WiFi NOT connected to proper network");
+				} else {
+					logger.info("Logged out");
+				}
+			}
+			LoginMetrics metrics = LoginMetrics.getInstance();
+			// moving from one proper network to another needs a login of its
+			// own, even though we never saw a disconnect in between. Roaming
+			// between access points of the same network doesn't.
+			boolean switched = decision == CONNECTED && mApplied == CONNECTED
+					&& !equals(network, mAppliedNetwork);
+			if (decision == mApplied && !switched) {
+				// the link came back before we acted on it going away
+				if (decision == CONNECTED) metrics.increment(STARTS_AVOIDED);
+				logger.info("No net transition, service left alone");
+			} else if (decision == CONNECTED) {
+				if (switched) {
+					metrics.increment(SWITCHES);
+					logger.info("Switched from {} to {}", mAppliedNetwork, network);
+				}
+				metrics.increment(STARTS);
+				ServiceStarter.startService(context);
+			} else {
+				metrics.increment(STOPS);
+				ServiceStarter.stopService(context);
+			}
+			mApplied = decision;
+			mAppliedNetwork = network;
+		} finally {
+			if (asyncResult != null) Async.finish(asyncResult);
+		}
+	}
+
+	private static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Keeps {@link BroadcastReceiver.PendingResult} out of the classes which
+	 * are loaded on devices older than Honeycomb
+	 */
+	private static class Async {
+		static Object goAsync(BroadcastReceiver receiver) {
+			return receiver.goAsync();
+		}
+
+		static void finish(Object asyncResult) {
+			((BroadcastReceiver.PendingResult) asyncResult).finish();
+		}
+	}
+}
@@ -25,9 +25,6 @@ import org.slf4j.LoggerFactory;
 import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.net.wifi.WifiInfo;
-import android.net.wifi.WifiManager;
-import android.text.TextUtils;
 
 public class NetworkUtil {
     private static final Logger logger = LoggerFactory.getLogger(NetworkUtil.class);
@@ -64,22 +61,11 @@ public class NetworkUtil {
         return status;
     }
 
+	/**
+	 * @return true if the WiFi network we are connected to has a profile,
+	 * see {@link ProfileManager}
+	 */
 	public static boolean isConnectedToProperNetwork(Context context) {
-		WifiManager wm = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
-		String ssid = SettingsManager.getString(context, SettingsManager.SSID, null);
-		WifiInfo wi = wm.getConnectionInfo();
-		if (wm != null && wm.isWifiEnabled() && wi != null
-				&& !TextUtils.isEmpty(ssid)) {
-			logger.info("Checking if connected to network SSID : {}", ssid);
-			String wssid = wi.getSSID();
-			logger.info("Connected to network SSID : {}", wssid);
-			if (!TextUtils.isEmpty(wssid)) {
-				wssid = wssid.replace("\"", "");
-				if (wssid.equalsIgnoreCase(ssid)) {
-					return true;
-				}
-			}
-		}
-		return false;
+		return ProfileManager.getInstance().match(context) != null;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.app.NotificationCompat;
+import android.text.format.DateUtils;
+
+/**
+ * Owns the ongoing "logged in" notification. The parts which never change
+ * are set up once, and the notification is only posted again when the
+ * text on it would be different, not on every login and keep alive.
+ * @author ridhishguhan
+ */
+public class NotificationController {
+	private static final Logger logger = LoggerFactory.getLogger(NotificationController.class);
+	private static final int ID = 1000;
+
+	private static NotificationController instance;
+
+	private final NotificationManager mManager;
+	private final NotificationCompat.Builder mBuilder;
+	private final String mFrom;
+	private final String mUpto;
+	// only used while holding the lock, SimpleDateFormat isn't thread safe
+	private final SimpleDateFormat mFormat = new SimpleDateFormat("kk:mm dd/MM/yyyy");
+	private final Date mDate = new Date();
+
+	// what is showing, mText is null while nothing is
+	private long mLogin;
+	private int mLimit;
+	private String mText;
+	private int mPosted = 0;
+	private int mAvoided = 0;
+
+	private NotificationController(Context context) {
+		mManager = (NotificationManager) context.getSystemService(Context
+				.NOTIFICATION_SERVICE);
+		mFrom = context.getString(R.string.from);
+		mUpto = context.getString(R.string.upto);
+		Intent i = new Intent(context, CredentialActivity.class);
+		mBuilder = new NotificationCompat.Builder(context)
+				.setOngoing(true)
+				.setContentTitle(context.getString(R.string.app_name))
+				.setSmallIcon(R.drawable.ic_launcher)
+				.setTicker(context.getString(R.string.logged_in) + ", "
+						+ context.getString(R.string.internet_access))
+				.setContentIntent(PendingIntent.getActivity(context, 0, i, Intent
+						.FLAG_ACTIVITY_CLEAR_TOP));
+	}
+
+	public static synchronized NotificationController getInstance(Context context) {
+		if (instance == null)
+			instance = new NotificationController(context.getApplicationContext());
+		return instance;
+	}
+
+	/**
+	 * Shows that we are logged in, unless it is showing already
+	 * @param login when the user logged in
+	 * @param limit hours to stay logged in for, 0 or less for ever
+	 */
+	public synchronized void showLoggedIn(long login, int limit) {
+		if (mText != null && login == mLogin && limit == mLimit) {
+			avoided();
+			return;
+		}
+		String text = mFrom + " : " + format(login) + (limit <= 0 ? "" : " | "
+				+ mUpto + " : " + format(login + limit * DateUtils.HOUR_IN_MILLIS));
+		mLogin = login;
+		mLimit = limit;
+		// a different login time may well read the same
+		if (text.equals(mText)) {
+			avoided();
+			return;
+		}
+		mText = text;
+		mManager.notify(ID, mBuilder.setContentText(text).build());
+		mPosted++;
+		LoginMetrics.getInstance().increment(LoginMetrics.NOTIFICATIONS_POSTED);
+		logger.debug("Notification posted : {}", this);
+	}
+
+	public synchronized void cancel() {
+		if (mText == null) return;
+		mManager.cancel(ID);
+		mText = null;
+	}
+
+	/**
+	 * Takes the notification away whether or not we think it is showing,
+	 * e.g. one left behind by a process that was killed
+	 */
+	public synchronized void clear() {
+		mManager.cancel(ID);
+		mText = null;
+	}
+
+	private void avoided() {
+		mAvoided++;
+		LoginMetrics.getInstance().increment(LoginMetrics.NOTIFICATIONS_AVOIDED);
+	}
+
+	private String format(long time) {
+		mDate.setTime(time);
+		return mFormat.format(mDate);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "posted=" + mPosted + ", avoided=" + mAvoided;
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import android.os.SystemClock;
+
+/**
+ * Splits the time taken by one run of the login flow into its phases.
+ * Only one phase runs at a time. Starting a phase, or ending the run,
+ * while another is still running records that one as not completed.
+ * Every phase is also recorded in {@link LoginMetrics} as it ends.
+ * Not thread safe, a timer belongs to the run that created it.
+ * @author ridhishguhan
+ */
+public class PhaseTimer {
+	public static final String PROBE = "probe";
+	public static final String DISCOVERY = "discovery";
+	public static final String POST = "post";
+	public static final String KEEP_ALIVE = "keep_alive";
+	public static final String LOGOUT = "logout";
+
+	private final Map<String, Long> mPhases = new LinkedHashMap<String, Long>();
+	private final long mStart = SystemClock.elapsedRealtime();
+	private String mPhase;
+	private long mPhaseStart;
+
+	public void begin(String phase) {
+		end();
+		mPhase = phase;
+		mPhaseStart = SystemClock.elapsedRealtime();
+	}
+
+	/**
+	 * Ends a phase left running, which didn't get to finish
+	 */
+	public void end() {
+		end(false);
+	}
+
+	/**
+	 * @param success whether the phase achieved what it set out to do
+	 * @return the time the phase took, 0 if none was running
+	 */
+	public long end(boolean success) {
+		if (mPhase == null) return 0;
+		long elapsed = SystemClock.elapsedRealtime() - mPhaseStart;
+		mPhases.put(mPhase, getElapsed(mPhase) + elapsed);
+		LoginMetrics.getInstance().record(mPhase, elapsed, success);
+		mPhase = null;
+		return elapsed;
+	}
+
+	/**
+	 * @return the time spent in the phase so far, 0 if it never ran
+	 */
+	public long getElapsed(String phase) {
+		Long elapsed = mPhases.get(phase);
+		return elapsed == null ? 0 : elapsed;
+	}
+
+	/**
+	 * @return the time since the timer was created
+	 */
+	public long getTotal() {
+		return SystemClock.elapsedRealtime() - mStart;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Entry<String, Long> phase : mPhases.entrySet()) {
+			sb.append(phase.getKey()).append('=').append(phase.getValue())
+					.append("ms, ");
+		}
+		return sb.append("total=").append(getTotal()).append("ms").toString();
+	}
+}
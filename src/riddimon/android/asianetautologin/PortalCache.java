@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import riddimon.android.asianetautologin.ProfileManager.Profile;
+
+/**
+ * Decides whether a login can post the credentials straight to the form
+ * action found on its network last time. The action is kept with the
+ * network's profile, see {@link ProfileManager.Profile#url}, which keeps
+ * it for keep alives and logout as well. It is only used for a login
+ * while it is younger than a TTL and until a post to it fails.
+ * @author ridhishguhan
+ */
+public class PortalCache {
+	private static final Logger logger = LoggerFactory.getLogger(PortalCache.class);
+	private static final long DEFAULT_TTL = DateUtils.DAY_IN_MILLIS;
+
+	public enum Lookup {
+		HIT, STALE, MISS
+	}
+
+	private static PortalCache instance;
+
+	private final long mTtl;
+	private int mHits = 0;
+	private int mStale = 0;
+	private int mMisses = 0;
+	private int mInvalidations = 0;
+	// moving average of how long a discovery takes
+	private long mDiscoveryTime = 0;
+	private long mTimeSaved = 0;
+
+	private PortalCache(long ttl) {
+		mTtl = ttl;
+	}
+
+	public static synchronized PortalCache getInstance() {
+		if (instance == null)
+			instance = new PortalCache(DEFAULT_TTL);
+		return instance;
+	}
+
+	/**
+	 * @param profile the profile of the network we are on
+	 * @return the action url found on the network, if it is fresh
+	 */
+	public synchronized String get(Profile profile) {
+		String url = null;
+		Lookup lookup = Lookup.MISS;
+		if (!TextUtils.isEmpty(profile.url) && profile.found > 0) {
+			if (System.currentTimeMillis() - profile.found < mTtl) {
+				url = profile.url;
+				lookup = Lookup.HIT;
+			} else {
+				lookup = Lookup.STALE;
+			}
+		}
+		switch (lookup) {
+		case HIT: mHits++; break;
+		case STALE: mStale++; break;
+		case MISS: mMisses++; break;
+		}
+		logger.info("Portal cache {} for {}", lookup, profile.name);
+		return url;
+	}
+
+	/**
+	 * Stores a freshly discovered action URL with the profile
+	 * @param discoveryTime how long discovery took, in milliseconds
+	 */
+	public synchronized void put(Context context, Profile profile, String url
+			, long discoveryTime) {
+		mDiscoveryTime = mDiscoveryTime == 0 ? discoveryTime
+				: (3 * mDiscoveryTime + discoveryTime) / 4;
+		if (TextUtils.isEmpty(url)) return;
+		ProfileManager.getInstance().setUrl(context, profile.name, url
+				, System.currentTimeMillis());
+	}
+
+	/**
+	 * Records that a cached URL was used successfully, which saved a
+	 * discovery round
+	 */
+	public synchronized void validated() {
+		mTimeSaved += mDiscoveryTime;
+	}
+
+	/**
+	 * Has the action found again by the next login, after the portal
+	 * rejected a post to it. Keep alives and logout go on using it.
+	 */
+	public synchronized void invalidate(Context context, Profile profile) {
+		mInvalidations++;
+		ProfileManager.getInstance().setUrl(context, profile.name, profile.url, 0);
+		logger.info("Portal cache invalidated for {}", profile.name);
+	}
+
+	public synchronized float getHitRate() {
+		int lookups = mHits + mStale + mMisses;
+		return lookups == 0 ? 0 : (float) mHits / lookups;
+	}
+
+	/**
+	 * @return the estimated time saved by skipping discovery, in milliseconds
+	 */
+	public synchronized long getTimeSaved() {
+		return mTimeSaved;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "PortalCache[hits=" + mHits + ", stale=" + mStale + ", misses="
+				+ mMisses + ", invalidations=" + mInvalidations + ", saved="
+				+ mTimeSaved + " ms]";
+	}
+
+}
@@ -0,0 +1,250 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpHead;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+/**
+ * Finds out whether we are behind the captive portal by racing small HEAD
+ * requests against several probe targets. The first conclusive answer wins
+ * and the remaining requests are aborted.
+ * @author ridhishguhan
+ */
+public class ProbeEngine {
+	private static final Logger logger = LoggerFactory.getLogger(ProbeEngine.class);
+	private static final long DEFAULT_DEADLINE = 10 * 1000;
+
+	public enum Verdict {
+		/** internet is reachable, we are logged in */
+		OPEN,
+		/** the request was intercepted by the captive portal */
+		PORTAL,
+		/** none of the targets could be reached */
+		NO_ROUTE
+	}
+
+	/**
+	 * A probe endpoint and the status code it returns when the internet is
+	 * reachable. Override {@link #interpret(int, String)} for endpoints that
+	 * need special handling.
+	 */
+	public static class Target {
+		final String url;
+		final int expectedStatus;
+
+		public Target(String url, int expectedStatus) {
+			this.url = url;
+			this.expectedStatus = expectedStatus;
+		}
+
+		/**
+		 * @param status the response status code
+		 * @param location the Location header, if any
+		 * @return the verdict, or null if the response is inconclusive
+		 */
+		protected Verdict interpret(int status, String location) {
+			if (status >= HttpStatus.SC_MOVED_PERMANENTLY && status < 400) {
+				// a redirect within the same site (e.g. to https) says nothing,
+				// and a page may well move to another host of its own, e.g. a
+				// country site to google.com. Only an endpoint which never
+				// redirects gives the portal away by being sent elsewhere.
+				if (TextUtils.isEmpty(location) || sameHost(url, location)
+						|| expectedStatus != HttpStatus.SC_NO_CONTENT) {
+					return null;
+				}
+				return Verdict.PORTAL;
+			}
+			if (status == expectedStatus) return Verdict.OPEN;
+			// a 204 endpoint answering 200 means the portal served its page
+			if (expectedStatus == HttpStatus.SC_NO_CONTENT
+					&& status == HttpStatus.SC_OK) return Verdict.PORTAL;
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			return url;
+		}
+	}
+
+	public static class Result {
+		public final Verdict verdict;
+		/**
+		 * the page the portal served: where it redirected us to, or the
+		 * probe url if it answered in its place. Null if not intercepted.
+		 */
+		public final String location;
+		public final Target target;
+		public final long elapsed;
+
+		Result(Verdict verdict, String location, Target target, long elapsed) {
+			this.verdict = verdict;
+			this.location = location;
+			this.target = target;
+			this.elapsed = elapsed;
+		}
+
+		public boolean isOpen() {
+			return verdict == Verdict.OPEN;
+		}
+
+		@Override
+		public String toString() {
+			return verdict + (location == null ? "" : " -> " + location)
+					+ " via " + target + " in " + elapsed + " ms";
+		}
+	}
+
+	private static final ExecutorService sExecutor = Executors.newCachedThreadPool(
+			new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "probe");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private static ProbeEngine sDefault;
+
+	private final List<Target> mTargets;
+	private final long mDeadline;
+
+	public ProbeEngine(List<Target> targets, long deadline) {
+		mTargets = new ArrayList<Target>(targets);
+		mDeadline = deadline;
+	}
+
+	public static synchronized ProbeEngine getDefault() {
+		if (sDefault == null) {
+			sDefault = new ProbeEngine(Arrays.asList(
+					new Target("http://clients3.google.com/generate_204"
+							, HttpStatus.SC_NO_CONTENT),
+					new Target("http://www.gstatic.com/generate_204"
+							, HttpStatus.SC_NO_CONTENT),
+					new Target("http://www.google.co.in", HttpStatus.SC_OK))
+					, DEFAULT_DEADLINE);
+		}
+		return sDefault;
+	}
+
+	public List<Target> getTargets() {
+		return mTargets;
+	}
+
+	/**
+	 * Races all targets and returns the first conclusive answer
+	 * <p><b>Warning :</b> This method blocks the calling thread.</p>
+	 * @param context
+	 * @return the result, never null
+	 */
+	public Result probe(final Context context) {
+		final long start = SystemClock.elapsedRealtime();
+		CompletionService<Result> cs = new ExecutorCompletionService<Result>(sExecutor);
+		List<Future<Result>> futures = new ArrayList<Future<Result>>();
+		final List<HttpHead> requests = new ArrayList<HttpHead>();
+		for (final Target target : mTargets) {
+			final HttpHead req = new HttpHead(target.url);
+			requests.add(req);
+			futures.add(cs.submit(new Callable<Result>() {
+				@Override
+				public Result call() throws Exception {
+					return probe(context, target, req, start);
+				}
+			}));
+		}
+
+		Result result = null;
+		try {
+			for (int i = 0; i < futures.size() && result == null; i++) {
+				long left = mDeadline - (SystemClock.elapsedRealtime() - start);
+				Future<Result> f = left > 0 ? cs.poll(left, TimeUnit.MILLISECONDS) : null;
+				if (f == null) break;
+				try {
+					Result r = f.get();
+					if (r != null && r.verdict != Verdict.NO_ROUTE) result = r;
+				} catch (ExecutionException e) {
+					logger.warn("Probe failed : {}", e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (HttpHead req : requests) {
+				if (!req.isAborted()) req.abort();
+			}
+			for (Future<Result> f : futures) {
+				f.cancel(true);
+			}
+		}
+
+		if (result == null) {
+			result = new Result(Verdict.NO_ROUTE, null, null
+					, SystemClock.elapsedRealtime() - start);
+		}
+		logger.info("Probe : {}", result);
+		return result;
+	}
+
+	private static Result probe(Context context, Target target, HttpHead req
+			, long start) {
+		HttpResult response = HttpUtils.execute(context, req, 0);
+		long elapsed = SystemClock.elapsedRealtime() - start;
+		if (response == null) {
+			return new Result(Verdict.NO_ROUTE, null, target, elapsed);
+		}
+		int status = response.getStatusCode();
+		String location = response.getFirstHeader("Location");
+		Verdict verdict = target.interpret(status, location);
+		if (verdict == null) return null;
+		if (verdict != Verdict.PORTAL) location = null;
+		// the portal served its page in place of the endpoint, fetching the
+		// endpoint again gets the page
+		else if (status / 100 != 3) location = target.url;
+		return new Result(verdict, location, target, elapsed);
+	}
+
+	private static boolean sameHost(String url, String location) {
+		String host = Uri.parse(url).getHost();
+		String other = Uri.parse(location).getHost();
+		return host != null && host.equalsIgnoreCase(other);
+	}
+}
@@ -0,0 +1,336 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.text.TextUtils;
+
+/**
+ * Credentials for each of the networks we log in to. Profiles are matched
+ * against the WiFi network through an index built once whenever they
+ * change, so a lookup is a couple of hash probes however many profiles
+ * there are. Each profile keeps the portal url its logins, keep alives and
+ * logout go to, and when it was found; {@link PortalCache} decides when a
+ * login has to look for it again.
+ * @author ridhishguhan
+ */
+public class ProfileManager {
+	private static final Logger logger = LoggerFactory.getLogger(ProfileManager.class);
+
+	private static final String NAME = "name";
+	private static final String SSIDS = "ssids";
+	private static final String BSSIDS = "bssids";
+	private static final String USERNAME = "username";
+	private static final String PASSWORD = "password";
+	private static final String URL = "url";
+	private static final String FOUND = "found";
+
+	public static class Profile {
+		public final String name;
+		public final Set<String> ssids;
+		public final Set<String> bssids;
+		public final String username;
+		public final String password;
+		// where the portal was last found, null until the first login
+		public final String url;
+		// wall clock time the url was found at, 0 if it has to be found again
+		public final long found;
+
+		public Profile(String name, Set<String> ssids, Set<String> bssids
+				, String username, String password, String url, long found) {
+			this.name = name;
+			this.ssids = Collections.unmodifiableSet(new LinkedHashSet<String>(ssids));
+			this.bssids = Collections.unmodifiableSet(new LinkedHashSet<String>(bssids));
+			this.username = username;
+			this.password = password;
+			this.url = url;
+			this.found = found;
+		}
+
+		/**
+		 * A profile for a single SSID, named after it
+		 */
+		public Profile(String ssid, String username, String password) {
+			this(ssid, Collections.singleton(ssid), Collections.<String>emptySet()
+					, username, password, null, 0);
+		}
+
+		/**
+		 * @return this profile with another portal url
+		 */
+		public Profile withUrl(String url, long found) {
+			return new Profile(name, ssids, bssids, username, password, url, found);
+		}
+
+		/**
+		 * @return this profile with other credentials
+		 */
+		public Profile withCredentials(String username, String password) {
+			return new Profile(name, ssids, bssids, username, password, url, found);
+		}
+
+		JSONObject toJson() throws JSONException {
+			JSONArray ssids = new JSONArray();
+			for (String ssid : this.ssids) ssids.put(ssid);
+			JSONArray bssids = new JSONArray();
+			for (String bssid : this.bssids) bssids.put(bssid);
+			return new JSONObject().put(NAME, name).put(SSIDS, ssids)
+					.put(BSSIDS, bssids).put(USERNAME, username)
+					.put(PASSWORD, password).putOpt(URL, url).put(FOUND, found);
+		}
+
+		static Profile fromJson(JSONObject json) {
+			return new Profile(json.optString(NAME), toSet(json.optJSONArray(SSIDS))
+					, toSet(json.optJSONArray(BSSIDS)), json.optString(USERNAME, null)
+					, json.optString(PASSWORD, null), json.optString(URL, null)
+					, json.optLong(FOUND, 0));
+		}
+
+		private static Set<String> toSet(JSONArray array) {
+			Set<String> set = new LinkedHashSet<String>();
+			for (int i = 0; array != null && i < array.length(); i++) {
+				String value = array.optString(i);
+				if (!TextUtils.isEmpty(value)) set.add(value);
+			}
+			return set;
+		}
+
+		@Override
+		public String toString() {
+			return name + " " + ssids + (bssids.isEmpty() ? "" : " " + bssids);
+		}
+	}
+
+	/**
+	 * Profiles keyed by every form a network name can be reported in
+	 */
+	private static class Index {
+		final List<Profile> profiles;
+		// ssids as given and as quoted by WifiInfo from Jelly Bean MR1 on,
+		// so the usual lookup needs no string handling at all
+		final Map<String, Profile> exact = new HashMap<String, Profile>();
+		// unquoted, lower case ssids for networks reported in another case
+		final Map<String, Profile> folded = new HashMap<String, Profile>();
+		final Map<String, Profile> bssids = new HashMap<String, Profile>();
+
+		Index(List<Profile> profiles) {
+			this.profiles = Collections.unmodifiableList(profiles);
+			// earlier profiles win when two claim the same network
+			for (int i = profiles.size() - 1; i >= 0; i--) {
+				Profile profile = profiles.get(i);
+				for (String ssid : profile.ssids) {
+					exact.put(ssid, profile);
+					exact.put("\"" + ssid + "\"", profile);
+					folded.put(fold(ssid), profile);
+				}
+				for (String bssid : profile.bssids) {
+					bssids.put(bssid.toLowerCase(Locale.US), profile);
+				}
+			}
+		}
+
+		Profile match(String ssid, String bssid) {
+			Profile profile = null;
+			if (bssid != null && !bssids.isEmpty()) {
+				profile = bssids.get(bssid);
+				if (profile == null) profile = bssids.get(bssid.toLowerCase(Locale.US));
+			}
+			if (profile == null && ssid != null) {
+				profile = exact.get(ssid);
+				if (profile == null) profile = folded.get(fold(ssid));
+			}
+			return profile;
+		}
+	}
+
+	private static ProfileManager instance;
+
+	private volatile Index mIndex;
+
+	private ProfileManager() {
+	}
+
+	public static synchronized ProfileManager getInstance() {
+		if (instance == null)
+			instance = new ProfileManager();
+		return instance;
+	}
+
+	private static String fold(String ssid) {
+		int start = 0;
+		int end = ssid.length();
+		if (end > 1 && ssid.charAt(0) == '"' && ssid.charAt(end - 1) == '"') {
+			start++;
+			end--;
+		}
+		return ssid.substring(start, end).toLowerCase(Locale.US);
+	}
+
+	private Index getIndex(Context context) {
+		Index index = mIndex;
+		if (index == null) {
+			synchronized (this) {
+				if (mIndex == null) mIndex = new Index(load(context));
+				index = mIndex;
+			}
+		}
+		return index;
+	}
+
+	private static List<Profile> load(Context context) {
+		List<Profile> profiles = new ArrayList<Profile>();
+		// the profiles keep the portal urls now
+		SettingsManager.removeAll(context, SettingsManager.PORTAL_PREFIX);
+		String stored = SettingsManager.getString(context, SettingsManager.PROFILES
+				, null);
+		if (stored != null) {
+			try {
+				JSONArray array = new JSONArray(stored);
+				for (int i = 0; i < array.length(); i++) {
+					JSONObject json = array.optJSONObject(i);
+					if (json != null) profiles.add(Profile.fromJson(json));
+				}
+				// saved before the url was kept with the profile, the one
+				// network there was is the one the url was found on
+				String url = SettingsManager.getConfig(context).url;
+				if (profiles.size() == 1 && profiles.get(0).url == null
+						&& !TextUtils.isEmpty(url)) {
+					profiles.set(0, profiles.get(0).withUrl(url, 0));
+					save(context, profiles);
+				}
+			} catch (JSONException e) {
+				logger.warn("Discarding unreadable profiles : {}", e.toString());
+			}
+		} else {
+			// the single network set up before there were profiles
+			SettingsManager.Config config = SettingsManager.getConfig(context);
+			if (!TextUtils.isEmpty(config.ssid)) {
+				profiles.add(new Profile(config.ssid, config.username, config.password)
+						.withUrl(TextUtils.isEmpty(config.url) ? null : config.url, 0));
+				save(context, profiles);
+				logger.info("Migrated settings to profile {}", config.ssid);
+			}
+		}
+		return profiles;
+	}
+
+	private static void save(Context context, List<Profile> profiles) {
+		JSONArray array = new JSONArray();
+		try {
+			for (Profile profile : profiles) array.put(profile.toJson());
+		} catch (JSONException e) {
+			// only thrown for non finite numbers
+		}
+		SettingsManager.putString(context, SettingsManager.PROFILES, array.toString());
+	}
+
+	public List<Profile> getProfiles(Context context) {
+		return getIndex(context).profiles;
+	}
+
+	/**
+	 * @return the profile with the name, or null if there is none
+	 */
+	public Profile get(Context context, String name) {
+		for (Profile profile : getProfiles(context)) {
+			if (profile.name.equals(name)) return profile;
+		}
+		return null;
+	}
+
+	/**
+	 * Remembers where the portal of a profile's network was found and when,
+	 * does nothing if the profile is gone or has both already
+	 * @param found when the url was found, 0 to have it found again
+	 */
+	public synchronized void setUrl(Context context, String name, String url
+			, long found) {
+		Profile profile = get(context, name);
+		if (profile == null || TextUtils.equals(url, profile.url)
+				&& found == profile.found) {
+			return;
+		}
+		put(context, profile.withUrl(url, found));
+	}
+
+	/**
+	 * Adds a profile, replacing the one with the same name if there is one
+	 */
+	public synchronized void put(Context context, Profile profile) {
+		List<Profile> profiles = new ArrayList<Profile>(getProfiles(context));
+		int i = 0;
+		while (i < profiles.size() && !profiles.get(i).name.equals(profile.name)) i++;
+		if (i < profiles.size()) profiles.set(i, profile);
+		else profiles.add(profile);
+		save(context, profiles);
+		mIndex = new Index(profiles);
+	}
+
+	public synchronized void remove(Context context, String name) {
+		List<Profile> profiles = new ArrayList<Profile>(getProfiles(context));
+		for (int i = 0; i < profiles.size(); i++) {
+			if (profiles.get(i).name.equals(name)) {
+				profiles.remove(i);
+				save(context, profiles);
+				mIndex = new Index(profiles);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @param ssid the network name, quoted or not
+	 * @param bssid the access point, may be null
+	 * @return the profile for the network, or null if there is none
+	 */
+	public Profile match(Context context, String ssid, String bssid) {
+		return getIndex(context).match(ssid, bssid);
+	}
+
+	/**
+	 * @return the profile for the WiFi network we are connected to, or null
+	 * if there is none or WiFi is off
+	 */
+	public Profile match(Context context) {
+		WifiManager wm = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+		WifiInfo wi = wm == null || !wm.isWifiEnabled() ? null : wm.getConnectionInfo();
+		if (wi == null) return null;
+		Profile profile = match(context, wi.getSSID(), wi.getBSSID());
+		logger.debug("Network {} matches profile {}", wi.getSSID(), profile);
+		return profile;
+	}
+}
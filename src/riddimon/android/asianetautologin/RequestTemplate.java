@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A form POST whose body is encoded once and then replayed. Keep alive,
+ * logout and login send the same fields to the same url every time, so
+ * there is no point in building, encoding and copying them for each
+ * request. A template is compiled again only when the url or a field
+ * value, e.g. the profile, changes.
+ * @author ridhishguhan
+ */
+public class RequestTemplate {
+	private static final Logger logger = LoggerFactory.getLogger(RequestTemplate.class);
+	// what UrlEncodedFormEntity sent, so the portal sees the same bytes
+	private static final String CHARSET = "ISO-8859-1";
+	private static final String CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+	private static final ConcurrentMap<String, RequestTemplate> sTemplates
+			= new ConcurrentHashMap<String, RequestTemplate>();
+
+	private final String mUrl;
+	private final String[] mFields;
+	private final URI mUri;
+	// repeatable and never written to, so every request can share it
+	private final ByteArrayEntity mEntity;
+	private final int mLength;
+
+	private RequestTemplate(String url, String[] fields) throws UnsupportedEncodingException {
+		mUrl = url;
+		mFields = fields.clone();
+		mUri = URI.create(url);
+		StringBuilder body = new StringBuilder(64);
+		for (int i = 0; i + 1 < fields.length; i += 2) {
+			if (body.length() > 0) body.append('&');
+			body.append(URLEncoder.encode(fields[i], CHARSET)).append('=')
+					.append(URLEncoder.encode(fields[i + 1], CHARSET));
+		}
+		byte[] bytes = body.toString().getBytes(CHARSET);
+		mLength = bytes.length;
+		mEntity = new ByteArrayEntity(bytes);
+		mEntity.setContentType(CONTENT_TYPE);
+	}
+
+	/**
+	 * Returns the template compiled last under this name, compiling it again
+	 * if it was for another url or other values
+	 * @param name the request it is for, e.g. the action
+	 * @param url where it is posted
+	 * @param fields field names and values, alternating
+	 * @return the template, or null if the url or a value is unusable
+	 */
+	public static RequestTemplate get(String name, String url, String... fields) {
+		RequestTemplate template = sTemplates.get(name);
+		if (template != null && template.mUrl.equals(url)
+				&& Arrays.equals(template.mFields, fields)) {
+			return template;
+		}
+		try {
+			template = new RequestTemplate(url, fields);
+		} catch (UnsupportedEncodingException e) {
+			logger.error("Could not encode {} : {}", name, e.toString());
+			return null;
+		} catch (RuntimeException e) {
+			// a malformed url, or a missing value
+			logger.error("Invalid {} request to {} : {}", new Object[] {name, url
+					, e.toString()});
+			return null;
+		}
+		sTemplates.put(name, template);
+		LoginMetrics.getInstance().increment(LoginMetrics.TEMPLATES_COMPILED);
+		logger.debug("Compiled {} : {} bytes", name, template.mLength);
+		return template;
+	}
+
+	/**
+	 * @return a request carrying the precompiled body
+	 */
+	public HttpPost newRequest() {
+		HttpPost post = new HttpPost(mUri);
+		post.setEntity(mEntity);
+		return post;
+	}
+
+	public int getLength() {
+		return mLength;
+	}
+}
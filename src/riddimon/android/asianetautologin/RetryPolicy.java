@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+
+import android.text.format.DateUtils;
+
+/**
+ * Decides whether and when a failed login / keep alive is tried again.
+ * Delays grow exponentially with random jitter, so devices behind the same
+ * portal don't retry in lock step, and all retries since the last success
+ * come out of one budget, so a dead portal isn't hammered for ever.
+ * @author ridhishguhan
+ */
+public class RetryPolicy {
+	public static final long BASE_DELAY = 2 * DateUtils.SECOND_IN_MILLIS;
+	public static final long MAX_DELAY = DateUtils.MINUTE_IN_MILLIS;
+	public static final int MAX_ATTEMPTS = 4;
+	public static final int SESSION_BUDGET = 12;
+
+	public enum Failure {
+		/** the server took too long to answer */
+		TIMEOUT,
+		/** nothing could be reached, e.g. the link is still coming up */
+		NO_ROUTE,
+		/** the portal answered, but not with what we wanted */
+		REJECTED
+	}
+
+	private static RetryPolicy sDefault;
+
+	private final long mBaseDelay;
+	private final long mMaxDelay;
+	private final int mMaxAttempts;
+	private final int mBudget;
+	private final Random mRandom = new Random();
+	private int mSpent = 0;
+
+	/**
+	 * @param baseDelay the delay before the first retry
+	 * @param maxDelay the longest delay before any retry
+	 * @param maxAttempts attempts per run, the first one included
+	 * @param budget retries allowed between two successes
+	 */
+	public RetryPolicy(long baseDelay, long maxDelay, int maxAttempts, int budget) {
+		mBaseDelay = baseDelay;
+		mMaxDelay = maxDelay;
+		mMaxAttempts = maxAttempts;
+		mBudget = budget;
+	}
+
+	public static synchronized RetryPolicy getDefault() {
+		if (sDefault == null)
+			sDefault = new RetryPolicy(BASE_DELAY, MAX_DELAY, MAX_ATTEMPTS
+					, SESSION_BUDGET);
+		return sDefault;
+	}
+
+	/**
+	 * @param e the error a request failed with, null if it got an answer
+	 */
+	public static Failure classify(IOException e) {
+		if (e == null) return Failure.REJECTED;
+		// covers socket and connect timeouts
+		if (e instanceof InterruptedIOException) return Failure.TIMEOUT;
+		return Failure.NO_ROUTE;
+	}
+
+	/**
+	 * Takes a retry out of the budget if one is due
+	 * @param failure why the last attempt failed
+	 * @param attempt the number of attempts made in this run so far
+	 * @return how long to wait before the next attempt, or -1 to give up
+	 */
+	public synchronized long next(Failure failure, int attempt) {
+		if (attempt >= mMaxAttempts || mSpent >= mBudget) return -1;
+		// one more try in case the portal had a hiccup, more won't change
+		// its mind about our credentials
+		if (failure == Failure.REJECTED && attempt > 1) return -1;
+		mSpent++;
+		return jitter(Math.min(mMaxDelay, mBaseDelay << Math.min(attempt - 1, 16)));
+	}
+
+	/**
+	 * Takes a retry out of the budget for a later, out of run attempt
+	 * @return how long to wait for it, or -1 if the budget is spent
+	 */
+	public synchronized long fallback(Failure failure) {
+		if (failure == Failure.REJECTED || mSpent >= mBudget) return -1;
+		mSpent++;
+		return jitter(mMaxDelay);
+	}
+
+	// somewhere between half and all of the delay
+	private long jitter(long delay) {
+		long half = delay / 2;
+		return half + (long) (mRandom.nextDouble() * (delay - half));
+	}
+
+	/**
+	 * Gives back the whole budget, after a success or on a new network
+	 */
+	public synchronized void reset() {
+		mSpent = 0;
+	}
+
+	public synchronized int getRemaining() {
+		return mBudget - mSpent;
+	}
+}
@@ -37,32 +37,20 @@ public class ServiceStarter extends BroadcastReceiver {
 
 	@Override
 	public void onReceive(Context context, Intent intent) {
-		boolean login = SettingsManager.getBoolean(context, SettingsManager
-				.LOG_IN, true);
-		boolean stopService = false;
-		boolean startService = false;
-		logger.info("Service Starter : Login enabled : {}", login);
 		if (intent.getAction().equals(ACTION_STATE_CHANGE)) {
 			NetworkInfo networkInfo = (NetworkInfo) intent.getParcelableExtra(WifiManager
 					.EXTRA_NETWORK_INFO);
-			logger.info("WiFi state change : connected = {}", networkInfo.isConnected());
 			logger.info("WiFi detailed state : {}", networkInfo.getDetailedState());
 			//String bssid = intent.getStringExtra(WifiManager.EXTRA_BSSID);
 			//WifiInfo wi = (WifiInfo) intent.getParcelableExtra(WifiManager.EXTRA_WIFI_INFO);
-			if (!networkInfo.isConnected() && (networkInfo.getDetailedState()
-					.equals(NetworkInfo.DetailedState.DISCONNECTED)
-					|| networkInfo.getDetailedState().equals(NetworkInfo
-					.DetailedState.FAILED))) {
-				stopService = true;
-			} else if (networkInfo.isConnected()){
-				if (login && NetworkUtil.isConnectedToProperNetwork(context)) {
-					logger.info("WiFi connected to proper network");
-					startService = true;
-				} else {
-					if (login) logger.info("WiFi NOT connected to proper network");
-					else logger.info("Logged out");
-					stopService = true;
-				}
+			// settings and the connection info are looked at once the state
+			// has settled, off the main thread
+			if (networkInfo.isConnected()) {
+				NetworkEvents.getInstance().post(this, context, NetworkEvents.CONNECTED);
+			} else if (networkInfo.getDetailedState().equals(NetworkInfo.DetailedState
+					.DISCONNECTED) || networkInfo.getDetailedState().equals(NetworkInfo
+					.DetailedState.FAILED)) {
+				NetworkEvents.getInstance().post(this, context, NetworkEvents.DISCONNECTED);
 			}
 		} else if (intent.getAction().equals(ACTION_SUPPLICANT_CONN_CHANGE)) {
 			/*
@@ -75,18 +63,23 @@ public class ServiceStarter extends BroadcastReceiver {
 			}
 			*/
 		}
+	}
 
-		if (startService) {
-			logger.info("Starting service");
-			// initiate login, as it would schedule keepAlive reqs
-			Intent service = new Intent(context, LoginService.class);
-			service.setAction(LoginService.ACTION_LOGIN);
-			context.startService(service);
-		} else if (stopService) {
-			logger.info("Stopping service");
-			Intent service = new Intent(context, LoginService.class);
-			context.stopService(service);
-		}
+	static void startService(Context context) {
+		logger.info("Starting service");
+		// runs alongside the service's probe
+		ConnectionWarmer.getInstance().onAssociated(context);
+		// a new network gets a full retry budget
+		RetryPolicy.getDefault().reset();
+		// initiate login, as it would schedule keepAlive reqs
+		Intent service = new Intent(context, LoginService.class);
+		service.setAction(LoginService.ACTION_LOGIN);
+		context.startService(service);
+	}
 
+	static void stopService(Context context) {
+		logger.info("Stopping service");
+		Intent service = new Intent(context, LoginService.class);
+		context.stopService(service);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.util.LinkedList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs session commands (login / keep alive / logout) one at a time on a
+ * single long-lived worker thread. Commands are held in a small bounded
+ * queue which merges duplicates, so that a burst of WiFi broadcasts, alarms
+ * and UI taps results in a single trip to the portal.
+ * @author ridhishguhan
+ */
+public class SessionEngine {
+	private static final Logger logger = LoggerFactory.getLogger(SessionEngine.class);
+	private static final int MAX_PENDING = 4;
+
+	/**
+	 * Executes a single command on the worker thread
+	 */
+	public interface CommandHandler {
+		void handle(String action);
+
+		/**
+		 * Called when a command is queued while the engine is idle. Runs
+		 * while the queue is locked, so it must not block.
+		 */
+		void onBusy();
+
+		/**
+		 * Called when the last command has finished and nothing is queued,
+		 * also while the queue is locked
+		 */
+		void onIdle();
+	}
+
+	private final CommandHandler mHandler;
+	private final LinkedList<String> mPending = new LinkedList<String>();
+	private final Thread mWorker;
+	private String mInFlight = null;
+	private boolean mShutdown = false;
+
+	// counters, only ever touched while holding the queue lock
+	private int mSubmitted = 0;
+	private int mMerged = 0;
+	private int mDropped = 0;
+	private int mCancelled = 0;
+
+	public SessionEngine(CommandHandler handler) {
+		mHandler = handler;
+		mWorker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "isp_worker");
+		mWorker.start();
+	}
+
+	/**
+	 * Queues an action for execution. A LOGIN or KEEP_ALIVE is merged into
+	 * an equivalent command which is already pending or running; LOGOUT drops
+	 * everything that is pending and interrupts the running command.
+	 * @param action one of the LoginService.ACTION_* constants
+	 * @return true if the action was queued, false if it was merged or dropped
+	 */
+	public boolean submit(String action) {
+		if (action == null) return false;
+		synchronized (mPending) {
+			if (mShutdown) return false;
+			mSubmitted++;
+			if (LoginService.ACTION_LOGOUT.equals(action)) {
+				mCancelled += mPending.size();
+				mPending.clear();
+				if (mInFlight != null && !LoginService.ACTION_LOGOUT
+						.equals(mInFlight)) {
+					mCancelled++;
+					mWorker.interrupt();
+					// the interrupt doesn't reach a blocked socket read
+					HttpUtils.abort(mWorker);
+				}
+			} else if (supersedes(mInFlight, action) || containsSuperseding(action)) {
+				logger.info("Merged {} into pending work", action);
+				mMerged++;
+				return false;
+			} else if (LoginService.ACTION_LOGIN.equals(action)) {
+				// a login takes care of keeping the session alive as well
+				if (mPending.remove(LoginService.ACTION_KEEP_ALIVE)) mMerged++;
+			}
+			if (mPending.size() >= MAX_PENDING) {
+				logger.warn("Session queue full, dropping {}", action);
+				mDropped++;
+				return false;
+			}
+			boolean idle = mInFlight == null && mPending.isEmpty();
+			mPending.addLast(action);
+			if (idle) mHandler.onBusy();
+			mPending.notifyAll();
+			return true;
+		}
+	}
+
+	private boolean containsSuperseding(String action) {
+		for (String pending : mPending) {
+			if (supersedes(pending, action)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if running <code>existing</code> makes <code>action</code>
+	 * redundant
+	 */
+	private static boolean supersedes(String existing, String action) {
+		if (existing == null || LoginService.ACTION_LOGOUT.equals(action)) {
+			return false;
+		}
+		return existing.equals(action) || (LoginService.ACTION_LOGIN
+				.equals(existing) && LoginService.ACTION_KEEP_ALIVE.equals(action));
+	}
+
+	private void loop() {
+		while (true) {
+			String action;
+			synchronized (mPending) {
+				while (mPending.isEmpty() && !mShutdown) {
+					try {
+						mPending.wait();
+					} catch (InterruptedException e) {
+						// a logout with nothing in flight, keep waiting
+					}
+				}
+				if (mShutdown) return;
+				action = mPending.removeFirst();
+				mInFlight = action;
+				// clear any interrupt aimed at the previous command
+				Thread.interrupted();
+			}
+			try {
+				mHandler.handle(action);
+			} catch (RuntimeException e) {
+				logger.error("Session command {} failed : {}", action, e);
+			} finally {
+				synchronized (mPending) {
+					mInFlight = null;
+					if (mPending.isEmpty()) mHandler.onIdle();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops the worker once the running command returns. Pending commands
+	 * are discarded.
+	 */
+	public void shutdown() {
+		synchronized (mPending) {
+			mShutdown = true;
+			mPending.clear();
+			// otherwise the running command reports it when it returns
+			if (mInFlight == null) mHandler.onIdle();
+			mPending.notifyAll();
+		}
+		mWorker.interrupt();
+	}
+
+	public int getQueueDepth() {
+		synchronized (mPending) {
+			return mPending.size();
+		}
+	}
+
+	/**
+	 * @return the action currently being executed, or null if idle
+	 */
+	public String getInFlight() {
+		synchronized (mPending) {
+			return mInFlight;
+		}
+	}
+
+	public boolean isBusy() {
+		synchronized (mPending) {
+			return mInFlight != null || !mPending.isEmpty();
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (mPending) {
+			return "SessionEngine[pending=" + mPending + ", inFlight=" + mInFlight
+					+ ", submitted=" + mSubmitted + ", merged=" + mMerged
+					+ ", dropped=" + mDropped + ", cancelled=" + mCancelled + "]";
+		}
+	}
+}
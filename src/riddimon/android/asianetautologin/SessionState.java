@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+
+/**
+ * Where the session stands, persisted so that a service restarted after its
+ * process was killed can pick up where it left off. Only transitions which
+ * change how it picks up are written, the steps of a login or keep alive
+ * are not. The state and the time it was entered are packed into a single
+ * long.
+ * @author ridhishguhan
+ */
+public class SessionState {
+	private static final Logger logger = LoggerFactory.getLogger(SessionState.class);
+
+	public enum State {
+		/** no session, or none we know of */
+		DISCONNECTED,
+		/** finding out whether we are behind the portal */
+		PROBING,
+		/** looking for the login form on the portal page */
+		DISCOVERING,
+		/** credentials sent, waiting for the portal */
+		AUTHENTICATING,
+		/** logged in */
+		ONLINE,
+		/** logged in, renewing the session before the portal drops it */
+		EXPIRING
+	}
+
+	// the ordinal takes the low byte, the wall clock time the rest
+	private static final int STATE_BITS = 8;
+
+	private static SessionState instance;
+
+	private State mState;
+	private long mSince;
+	// the state last written
+	private State mPersisted;
+
+	private SessionState(Context context) {
+		long packed = SettingsManager.getLong(context, SettingsManager.SESSION_STATE, 0);
+		int ordinal = (int) (packed & ((1 << STATE_BITS) - 1));
+		State[] states = State.values();
+		mState = ordinal < states.length ? states[ordinal] : State.DISCONNECTED;
+		mSince = packed >>> STATE_BITS;
+		mPersisted = mState;
+	}
+
+	public static synchronized SessionState getInstance(Context context) {
+		if (instance == null)
+			instance = new SessionState(context.getApplicationContext());
+		return instance;
+	}
+
+	/**
+	 * Enters a state, persisting it if a restart would resume differently
+	 * from it than from the state last persisted. Does nothing if we are in
+	 * it already.
+	 */
+	public synchronized void moveTo(Context context, State state) {
+		if (state == mState) return;
+		logger.info("Session : {} -> {}", mState, state);
+		mState = state;
+		mSince = System.currentTimeMillis();
+		if (settled(state) == settled(mPersisted)) return;
+		mPersisted = state;
+		SettingsManager.putLong(context, SettingsManager.SESSION_STATE
+				, mSince << STATE_BITS | state.ordinal());
+	}
+
+	/**
+	 * @return the state a restart treats this one like, a login step as
+	 * PROBING and a keep alive as ONLINE
+	 */
+	private static State settled(State state) {
+		switch (state) {
+		case DISCOVERING:
+		case AUTHENTICATING:
+			return State.PROBING;
+		case EXPIRING:
+			return State.ONLINE;
+		default:
+			return state;
+		}
+	}
+
+	public synchronized State get() {
+		return mState;
+	}
+
+	/**
+	 * @return when the current state was entered, 0 if never
+	 */
+	public synchronized long getSince() {
+		return mSince;
+	}
+
+	/**
+	 * @return true if a session was established and has not been given up
+	 */
+	public synchronized boolean isLoggedIn() {
+		return mState == State.ONLINE || mState == State.EXPIRING;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return mState + " since " + mSince;
+	}
+}
@@ -19,11 +19,18 @@
 
 package riddimon.android.asianetautologin;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.os.Build;
 
 public class SettingsManager {
 	private static final String SP_FILE = "asianet_auto_login_preferences.xml";
+	// the portal url from before there were profiles, only read to migrate
 	public static final String URL = "url";
 	public static final String USERNAME = "username";
 	public static final String PASSWORD = "password";
@@ -32,50 +39,222 @@ public class SettingsManager {
 	public static final String SSID = "ssid";
 	public static final String LOG_IN = "log_in";
 	public static final String LOG_IN_TIME = "log_in_time";
+	// prefix for portal urls cached per access point before they were kept
+	// with the profiles, only read to remove them
+	public static final String PORTAL_PREFIX = "portal_";
+	// prefix for forms found on portal pages, see FormCache
+	public static final String FORM_PREFIX = "form_";
+	// keep alive scheduling, see KeepAliveScheduler
+	public static final String KA_INTERVAL = "ka_interval";
+	public static final String KA_IDLE_TIMEOUT = "ka_idle_timeout";
+	public static final String KA_LAST_CONTACT = "ka_last_contact";
+	public static final String KA_DROPS = "ka_drops";
+	public static final String KA_WAKEUPS = "ka_wakeups";
+	public static final String KA_SINCE = "ka_since";
+	public static final String KA_TRAFFIC = "ka_traffic";
+	public static final String KA_LAZY = "ka_lazy";
+	// packed session state, see SessionState
+	public static final String SESSION_STATE = "session_state";
+	// debounce window for WiFi state changes, see NetworkEvents
+	public static final String EVENT_WINDOW = "event_window";
+	static final long DEFAULT_EVENT_WINDOW = 2 * 1000;
+	// JSON array of network profiles, see ProfileManager
+	public static final String PROFILES = "profiles";
+
+	private static SharedPreferences sPrefs;
+	private static final Object sConfigLock = new Object();
+	private static volatile Config sConfig;
+	// bumped whenever the snapshot is invalidated
+	private static int sGeneration = 0;
+	// held here, the preferences only keep a weak reference to listeners
+	private static final OnSharedPreferenceChangeListener sListener
+			= new OnSharedPreferenceChangeListener() {
+		@Override
+		public void onSharedPreferenceChanged(SharedPreferences sp, String key) {
+			if (Config.KEYS.contains(key)) invalidateConfig();
+		}
+	};
+
+	/**
+	 * An immutable snapshot of the settings the login flow reads on every
+	 * run. It is rebuilt the first time it is asked for after one of those
+	 * settings changed.
+	 */
+	public static final class Config {
+		static final Set<String> KEYS = new HashSet<String>(Arrays.asList(USERNAME
+				, PASSWORD, URL, SSID, KEEP_ALIVE, SHOW_NOTIF, LOG_IN, LOG_IN_TIME, KA_LAZY
+				, EVENT_WINDOW));
+
+		public final String username;
+		public final String password;
+		public final String url;
+		public final String ssid;
+		/** hours to stay signed in for, -1 for ever */
+		public final int keepAlive;
+		public final boolean showNotification;
+		/** skip keep alives while WiFi carries traffic */
+		public final boolean lazyKeepAlive;
+		public final boolean logIn;
+		/** 0 if never logged in */
+		public final long logInTime;
+		/** ms to wait for WiFi state changes to settle */
+		public final long eventWindow;
+
+		private Config(SharedPreferences sp) {
+			username = sp.getString(USERNAME, null);
+			password = sp.getString(PASSWORD, null);
+			url = sp.getString(URL, null);
+			ssid = sp.getString(SSID, null);
+			keepAlive = sp.getInt(KEEP_ALIVE, -1);
+			showNotification = sp.getBoolean(SHOW_NOTIF, true);
+			lazyKeepAlive = sp.getBoolean(KA_LAZY, true);
+			logIn = sp.getBoolean(LOG_IN, true);
+			logInTime = sp.getLong(LOG_IN_TIME, 0);
+			eventWindow = sp.getLong(EVENT_WINDOW, DEFAULT_EVENT_WINDOW);
+		}
+	}
+
+	/**
+	 * A set of changes which are written to disk together, in the
+	 * background where the platform allows it
+	 */
+	public static final class Batch {
+		private final SharedPreferences.Editor mEditor;
+		private boolean mConfigChanged = false;
+
+		private Batch(SharedPreferences.Editor editor) {
+			mEditor = editor;
+		}
+
+		private void touch(String name) {
+			mConfigChanged |= Config.KEYS.contains(name);
+		}
+
+		public Batch putString(String name, String value) {
+			touch(name);
+			mEditor.putString(name, value);
+			return this;
+		}
+
+		public Batch putInt(String name, int value) {
+			touch(name);
+			mEditor.putInt(name, value);
+			return this;
+		}
+
+		public Batch putBoolean(String name, boolean value) {
+			touch(name);
+			mEditor.putBoolean(name, value);
+			return this;
+		}
+
+		public Batch putLong(String name, long value) {
+			touch(name);
+			mEditor.putLong(name, value);
+			return this;
+		}
+
+		public Batch remove(String name) {
+			touch(name);
+			mEditor.remove(name);
+			return this;
+		}
+
+		/**
+		 * Makes the changes visible right away and persists them with a
+		 * single write. The write is asynchronous from Gingerbread onwards.
+		 */
+		public void apply() {
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+				mEditor.apply();
+			} else {
+				mEditor.commit();
+			}
+			// the listener may only be told later, on the main thread
+			if (mConfigChanged) invalidateConfig();
+		}
+	}
+
+	private static synchronized SharedPreferences getPreferences(Context context) {
+		if (sPrefs == null) {
+			sPrefs = context.getApplicationContext().getSharedPreferences(SP_FILE, 0);
+			sPrefs.registerOnSharedPreferenceChangeListener(sListener);
+		}
+		return sPrefs;
+	}
+
+	public static Config getConfig(Context context) {
+		Config config = sConfig;
+		if (config == null) {
+			int generation;
+			synchronized (sConfigLock) {
+				generation = sGeneration;
+			}
+			config = new Config(getPreferences(context));
+			synchronized (sConfigLock) {
+				// don't cache a snapshot which was outdated while being built
+				if (generation == sGeneration) sConfig = config;
+			}
+		}
+		return config;
+	}
+
+	private static void invalidateConfig() {
+		synchronized (sConfigLock) {
+			sGeneration++;
+			sConfig = null;
+		}
+	}
+
+	public static Batch edit(Context context) {
+		return new Batch(getPreferences(context).edit());
+	}
+
+	/**
+	 * Removes every setting whose name starts with the prefix, with a single
+	 * write if there are any
+	 */
+	public static void removeAll(Context context, String prefix) {
+		Batch batch = null;
+		for (String name : getPreferences(context).getAll().keySet()) {
+			if (!name.startsWith(prefix)) continue;
+			if (batch == null) batch = edit(context);
+			batch.remove(name);
+		}
+		if (batch != null) batch.apply();
+	}
 
 	public static String getString(Context context, String name, String def) {
-		SharedPreferences sp = context.getSharedPreferences(SP_FILE, 0);
-		return sp.getString(name, def);
+		return getPreferences(context).getString(name, def);
 	}
 
 	public static void putString(Context context, String name, String value) {
-		SharedPreferences.Editor spe = context.getSharedPreferences(SP_FILE, 0)
-				.edit();
-		spe.putString(name, value).commit();
+		edit(context).putString(name, value).apply();
 	}
 
 	public static Integer getInt(Context context, String name, int def) {
-		SharedPreferences sp = context.getSharedPreferences(SP_FILE, 0);
-		return sp.getInt(name, def);
+		return getPreferences(context).getInt(name, def);
 	}
 
 	public static void putInt(Context context, String name, int value) {
-		SharedPreferences.Editor spe = context.getSharedPreferences(SP_FILE, 0)
-				.edit();
-		spe.putInt(name, value).commit();
+		edit(context).putInt(name, value).apply();
 	}
 
 	public static Boolean getBoolean(Context context, String name
 			, Boolean def) {
-		SharedPreferences sp = context.getSharedPreferences(SP_FILE, 0);
-		return sp.getBoolean(name, def);
+		return getPreferences(context).getBoolean(name, def);
 	}
 
 	public static void putBoolean(Context context, String name, boolean value) {
-		SharedPreferences.Editor spe = context.getSharedPreferences(SP_FILE, 0)
-				.edit();
-		spe.putBoolean(name, value).commit();
+		edit(context).putBoolean(name, value).apply();
 	}
 
 	public static Long getLong(Context context, String name, long def) {
-		SharedPreferences sp = context.getSharedPreferences(SP_FILE, 0);
-		return sp.getLong(name, def);
+		return getPreferences(context).getLong(name, def);
 	}
 
 	public static void putLong(Context context, String name, long value) {
-		SharedPreferences.Editor spe = context.getSharedPreferences(SP_FILE, 0)
-				.edit();
-		spe.putLong(name, value).commit();
+		edit(context).putLong(name, value).apply();
 	}
 
 }
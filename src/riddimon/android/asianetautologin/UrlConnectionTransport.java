@@ -0,0 +1,230 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.message.BasicHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends requests with HttpURLConnection, which keeps a small pool of its own
+ * and has much less per request overhead than the Apache client. Request
+ * bodies are written with a fixed length so nothing waits for a
+ * 100-continue.
+ * <p>The pool is the platform's, which takes a connection back once its
+ * body has been read or closed. It has no way to close idle connections,
+ * so {@link #closeIdleConnections(long)} does nothing : a socket kept from
+ * the previous network stays in the pool until the platform finds it dead.
+ * The platform sends a request which fails on a pooled connection again
+ * where it can, and the retry policy takes care of the rest. Unlike the
+ * Apache client,
+ * HttpURLConnection can't bind its sockets to the WiFi address, so the
+ * route {@link WifiBinder} sets up is all that keeps requests off mobile
+ * data.</p>
+ * @author ridhishguhan
+ */
+public class UrlConnectionTransport implements HttpTransport {
+	private static final Logger logger = LoggerFactory.getLogger(UrlConnectionTransport.class);
+	private static final int TIMEOUT = 20 * 1000;
+
+	private final String mUserAgent;
+	private final AtomicInteger mLeased = new AtomicInteger();
+	private final AtomicInteger mReturned = new AtomicInteger();
+
+	public UrlConnectionTransport(String userAgent) {
+		mUserAgent = userAgent;
+	}
+
+	@Override
+	public Exchange execute(HttpUriRequest req) throws IOException {
+		final HttpURLConnection conn = (HttpURLConnection) req.getURI().toURL()
+				.openConnection();
+		final Release release = new Release(conn);
+		if (req instanceof AbortableHttpRequest) {
+			// lets HttpUriRequest.abort() drop this connection, throws if
+			// the request has been aborted already
+			((AbortableHttpRequest) req).setReleaseTrigger(release);
+		}
+		conn.setInstanceFollowRedirects(false);
+		conn.setConnectTimeout(TIMEOUT);
+		conn.setReadTimeout(TIMEOUT);
+		conn.setUseCaches(false);
+		conn.setRequestMethod(req.getMethod());
+		conn.setRequestProperty("User-Agent", mUserAgent);
+		for (Header header : req.getAllHeaders()) {
+			conn.addRequestProperty(header.getName(), header.getValue());
+		}
+
+		try {
+			release.lease();
+			HttpEntity entity = req instanceof HttpEntityEnclosingRequest
+					? ((HttpEntityEnclosingRequest) req).getEntity() : null;
+			if (entity != null) {
+				if (entity.getContentType() != null) {
+					conn.setRequestProperty("Content-Type", entity.getContentType()
+							.getValue());
+				}
+				long length = entity.getContentLength();
+				conn.setDoOutput(true);
+				if (length >= 0 && length <= Integer.MAX_VALUE) {
+					conn.setFixedLengthStreamingMode((int) length);
+				} else {
+					conn.setChunkedStreamingMode(0);
+				}
+				OutputStream out = conn.getOutputStream();
+				entity.writeTo(out);
+				out.close();
+			}
+
+			final int status = conn.getResponseCode();
+			final HttpResult head = new HttpResult(status, "HTTP/1.1 " + status + " "
+					+ conn.getResponseMessage(), getHeaders(conn), null, false);
+			return new Exchange() {
+				@Override
+				public HttpResult getHead() {
+					return head;
+				}
+
+				@Override
+				public InputStream getBody() throws IOException {
+					InputStream in = status >= 400 ? conn.getErrorStream()
+							: conn.getInputStream();
+					if (in == null) {
+						// nothing to read, the connection is back in the pool
+						release.releaseConnection();
+						return null;
+					}
+					return new FilterInputStream(in) {
+						@Override
+						public void close() throws IOException {
+							// the platform pools the connection, or drops it
+							// if the body wasn't read to the end
+							release.releaseConnection();
+							super.close();
+						}
+					};
+				}
+
+				@Override
+				public void abort() {
+					release.abortConnection();
+				}
+			};
+		} catch (IOException e) {
+			release.abortConnection();
+			throw e;
+		}
+	}
+
+	private static Header[] getHeaders(HttpURLConnection conn) {
+		List<Header> headers = new ArrayList<Header>();
+		for (Map.Entry<String, List<String>> field : conn.getHeaderFields().entrySet()) {
+			// the status line comes without a name
+			if (field.getKey() == null) continue;
+			for (String value : field.getValue()) {
+				headers.add(new BasicHeader(field.getKey(), value));
+			}
+		}
+		return headers.toArray(new Header[headers.size()]);
+	}
+
+	/**
+	 * Disconnects on abort, unless the connection has been handed back, and
+	 * counts the connection as returned the first time either happens
+	 */
+	private class Release implements ConnectionReleaseTrigger {
+		private final HttpURLConnection mConn;
+		private boolean mLeased = false;
+		private boolean mDone = false;
+
+		Release(HttpURLConnection conn) {
+			mConn = conn;
+		}
+
+		/**
+		 * Called before the connection is first used
+		 * @throws IOException if the request has been aborted already
+		 */
+		synchronized void lease() throws IOException {
+			if (mDone) throw new IOException("Request aborted");
+			mLeased = true;
+			UrlConnectionTransport.this.mLeased.incrementAndGet();
+		}
+
+		@Override
+		public void releaseConnection() {
+			finish(false);
+		}
+
+		@Override
+		public void abortConnection() {
+			finish(true);
+		}
+
+		private void finish(boolean disconnect) {
+			synchronized (this) {
+				if (mDone) return;
+				mDone = true;
+				if (!mLeased) return;
+				mReturned.incrementAndGet();
+			}
+			if (disconnect) mConn.disconnect();
+		}
+	}
+
+	/**
+	 * Does nothing, the platform's pool can't be told to close connections
+	 */
+	@Override
+	public void closeIdleConnections(long idleMillis) {
+		logger.debug("Idle connections are left to the platform");
+	}
+
+	@Override
+	public int getLeased() {
+		return mLeased.get();
+	}
+
+	@Override
+	public int getReturned() {
+		return mReturned.get();
+	}
+
+	@Override
+	public String getPoolStats() {
+		return "pooled by the platform";
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+
+/**
+ * Keeps the CPU awake while session commands run, so a request started by
+ * an alarm isn't stretched out by the device dozing off half way. The lock
+ * is taken by {@link AlarmReceiver} before the service is started, goes as
+ * soon as the session engine has nothing left to do, and the platform takes
+ * it away after a hard deadline whatever happens. The deadline counts from
+ * the start of the busy period, commands queued later don't extend it, and
+ * retries wait for an alarm rather than keeping the lock.
+ * @author ridhishguhan
+ */
+public class WakeBudget {
+	private static final Logger logger = LoggerFactory.getLogger(WakeBudget.class);
+	// a login attempt, a few requests with their 20s timeouts
+	static final long DEADLINE = 2 * DateUtils.MINUTE_IN_MILLIS;
+
+	private static WakeBudget instance;
+
+	private final PowerManager.WakeLock mLock;
+	// elapsed realtime the lock was taken at, 0 while it isn't held
+	private long mSince = 0;
+	// whether the keep alive alarm is what woke us
+	private boolean mKeepAlive = false;
+
+	private WakeBudget(Context context) {
+		PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+		mLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "AsianetAutoLogin");
+		// one hold and one release, however many commands came in between
+		mLock.setReferenceCounted(false);
+	}
+
+	public static synchronized WakeBudget getInstance(Context context) {
+		if (instance == null)
+			instance = new WakeBudget(context.getApplicationContext());
+		return instance;
+	}
+
+	/**
+	 * Takes the lock, does nothing if it is held already or ran out in
+	 * this busy period
+	 */
+	public synchronized void hold() {
+		hold(false);
+	}
+
+	/**
+	 * @param keepAlive true if the keep alive alarm woke us, the time until
+	 * the release is then recorded for it as well
+	 */
+	public synchronized void hold(boolean keepAlive) {
+		if (mSince == 0) {
+			mLock.acquire(DEADLINE);
+			mSince = SystemClock.elapsedRealtime();
+		}
+		mKeepAlive |= keepAlive;
+	}
+
+	/**
+	 * Lets the CPU sleep again
+	 * @return how long it was kept awake, in ms
+	 */
+	public synchronized long release() {
+		if (mSince == 0) return 0;
+		long held = SystemClock.elapsedRealtime() - mSince;
+		mSince = 0;
+		boolean inTime = mLock.isHeld();
+		if (inTime) mLock.release();
+		else logger.warn("Wake lock ran out after {} ms", held);
+		LoginMetrics metrics = LoginMetrics.getInstance();
+		metrics.record(LoginMetrics.WAKE, held, inTime);
+		if (mKeepAlive) metrics.record(LoginMetrics.WAKE_KEEP_ALIVE, held, inTime);
+		mKeepAlive = false;
+		return held;
+	}
+}
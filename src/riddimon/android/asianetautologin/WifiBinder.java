@@ -0,0 +1,230 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package riddimon.android.asianetautologin;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.params.ConnRouteParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.SystemClock;
+
+/**
+ * Sends each request over WiFi, whatever the default network is. The
+ * platform has no per socket network binding at our API level, so each
+ * host gets a route through WiFi, once per association, and Apache client
+ * sockets are bound to the WiFi address as well. HttpURLConnection can't
+ * be bound, so on that path the route is all there is.
+ * <p>A host is routed to every address it resolves to, so it doesn't
+ * matter which one the connection picks. {@link ConnectionWarmer} routes
+ * the hosts we know of as soon as WiFi associates, so the request path
+ * rarely has to. A request to any other host waits a moment for its route,
+ * and if there is none by then while another network is the default,
+ * HttpUtils fails it rather than let it leave over mobile data.</p>
+ * @author ridhishguhan
+ */
+public class WifiBinder {
+	private static final Logger logger = LoggerFactory.getLogger(WifiBinder.class);
+
+	private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+			new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "router");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	// how long a request waits for its host to be routed
+	static final long ROUTE_WAIT = 3 * 1000;
+
+	private static WifiBinder instance;
+
+	private final ConnectivityManager mConnectivity;
+	private final WifiManager mWifi;
+	// hosts routed over WiFi since we got mAddress, and those being routed
+	private final Set<String> mRouted = Collections.synchronizedSet(
+			new HashSet<String>());
+	private final Map<String, Future<Boolean>> mPending = Collections.synchronizedMap(
+			new HashMap<String, Future<Boolean>>());
+	private volatile int mAddress = 0;
+
+	WifiBinder(Context context) {
+		mConnectivity = (ConnectivityManager) context.getSystemService(Context
+				.CONNECTIVITY_SERVICE);
+		mWifi = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+	}
+
+	public static synchronized WifiBinder getInstance(Context context) {
+		if (instance == null)
+			instance = new WifiBinder(context.getApplicationContext());
+		return instance;
+	}
+
+	/**
+	 * Forgets the routes, which the platform drops with the association
+	 */
+	public synchronized void reset() {
+		mRouted.clear();
+		mPending.clear();
+		mAddress = 0;
+	}
+
+	/**
+	 * Makes the request go out over WiFi. A host which has not been routed
+	 * yet is routed on the router thread, and the request waits for that
+	 * for at most {@link #ROUTE_WAIT}.
+	 * @return false if WiFi has no address or the host has no route
+	 */
+	public boolean bind(HttpUriRequest req) {
+		int address = getAddress();
+		if (address == 0) return false;
+		try {
+			// only the Apache client honours this
+			ConnRouteParams.setLocalAddress(req.getParams(), InetAddress
+					.getByAddress(unpack(address)));
+		} catch (UnknownHostException e) {
+			// four bytes are always a valid address
+		}
+		final String host = req.getURI().getHost();
+		if (host == null || mRouted.contains(host)) return host != null;
+		Future<Boolean> routing;
+		synchronized (mPending) {
+			routing = mPending.get(host);
+			if (routing == null) {
+				// one resolution for every request waiting on the host
+				routing = sExecutor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return route(host);
+					}
+				});
+				mPending.put(host, routing);
+			}
+		}
+		try {
+			return routing.get(ROUTE_WAIT, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			logger.info("No route to {} after {} ms", host, ROUTE_WAIT);
+		} catch (ExecutionException e) {
+			logger.warn("Routing {} failed : {}", host, e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if WiFi is up but another network is the default, so a
+	 * request which isn't bound or routed would leave over that one
+	 */
+	public boolean canLeak() {
+		if (getAddress() == 0) return false;
+		NetworkInfo active = mConnectivity.getActiveNetworkInfo();
+		return active != null && active.getType() != ConnectivityManager.TYPE_WIFI;
+	}
+
+	/**
+	 * Routes a host over WiFi, unless it has been already since WiFi got
+	 * its address. Blocks while the host is resolved.
+	 * @return false if WiFi has no address, or no route could be set
+	 */
+	public boolean route(String host) {
+		int address = getAddress();
+		if (address == 0 || host == null) return false;
+		if (mRouted.contains(host)) return true;
+		long start = SystemClock.elapsedRealtime();
+		boolean routed = false;
+		try {
+			routed = true;
+			int count = 0;
+			for (InetAddress resolved : InetAddress.getAllByName(host)) {
+				if (!(resolved instanceof Inet4Address)) continue;
+				count++;
+				routed &= mConnectivity.requestRouteToHost(ConnectivityManager
+						.TYPE_WIFI, pack(resolved.getAddress()));
+			}
+			routed &= count > 0;
+			logger.debug("Routes to {} ({} addresses) over WiFi : {}"
+					, new Object[] {host, count, routed});
+		} catch (UnknownHostException e) {
+			routed = false;
+			logger.debug("Not routing {} : {}", host, e.toString());
+		}
+		synchronized (this) {
+			mPending.remove(host);
+			// the routes went with the lease they were set up on
+			if (routed && address == mAddress) mRouted.add(host);
+		}
+		if (!routed) LoginMetrics.getInstance().increment(LoginMetrics.ROUTE_FAILURES);
+		LoginMetrics.getInstance().record(LoginMetrics.BIND, SystemClock
+				.elapsedRealtime() - start, routed);
+		return routed;
+	}
+
+	/**
+	 * @return the WiFi address, forgetting the routes if it has changed
+	 */
+	private synchronized int getAddress() {
+		WifiInfo info = mWifi.getConnectionInfo();
+		int address = info == null ? 0 : info.getIpAddress();
+		if (address != 0 && address != mAddress) {
+			// a new lease, the routes went with the old one
+			mRouted.clear();
+			mPending.clear();
+			mAddress = address;
+		}
+		return address;
+	}
+
+	// least significant byte first, as in WifiInfo.getIpAddress()
+	private static int pack(byte[] b) {
+		return (b[0] & 0xff) | (b[1] & 0xff) << 8 | (b[2] & 0xff) << 16
+				| (b[3] & 0xff) << 24;
+	}
+
+	private static byte[] unpack(int address) {
+		return new byte[] {(byte) address, (byte) (address >> 8)
+				, (byte) (address >> 16), (byte) (address >> 24)};
+	}
+}